@@ -0,0 +1,165 @@
+package org.tivrfoa;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A file appender, its async appender and a logger on top of them, configured
+ * by each benchmark instead of through <code>log.properties</code>.
+ * <p>
+ * It lives in <code>org.tivrfoa</code> to reach the package-private
+ * {@link Logger} constructor. The file is created in the directory of the
+ * <code>benchmark.dir</code> system property, else in <code>/dev/shm</code>
+ * when it exists so that the disk does not add noise, else in the temporary
+ * directory. It is deleted on {@link #stop()}.
+ * <p>
+ * Events are not discarded when the queue is nearly full unless a
+ * discarding threshold is set, so that every logged event is written.
+ */
+public class BenchmarkPipeline {
+
+    private QueueType queueType = QueueType.BLOCKING;
+    private int queueSize = AsyncAppenderBase.DEFAULT_QUEUE_SIZE;
+    private boolean garbageFree;
+    private boolean neverBlock;
+    private int discardingThreshold = 0;
+    private boolean prudent;
+    private boolean fileChannel;
+    private String pattern = PatternLayout.DEFAULT_PATTERN;
+    private int shards = 1;
+    private boolean virtualWorker;
+    private long stagingLinger = -1;
+
+    private File file;
+    private FileAppender fileAppender;
+    private AsyncAppenderBase asyncAppender;
+
+    public void start() {
+        try {
+            file = File.createTempFile("simple-logger-", ".log", directory());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create the benchmark log file", e);
+        }
+        fileAppender = new FileAppender();
+        fileAppender.setName(file.getName());
+        fileAppender.setFile(file.getPath());
+        fileAppender.setPrudent(prudent);
+        fileAppender.setFileChannel(fileChannel);
+        fileAppender.setEncoder(new PatternLayout(pattern, TimestampFormatter.DEFAULT));
+        fileAppender.start();
+
+        if (shards > 1) {
+            ShardedAsyncAppender sharded = new ShardedAsyncAppender();
+            sharded.setShardCount(shards);
+            sharded.setEncoderFactory(() -> new PatternLayout(pattern, TimestampFormatter.DEFAULT));
+            sharded.addAppender(fileAppender);
+            asyncAppender = sharded;
+        } else if (stagingLinger >= 0) {
+            StagingAsyncAppender staging = new StagingAsyncAppender();
+            staging.setLingerMillis(stagingLinger);
+            staging.setEncoderFactory(() -> new PatternLayout(pattern, TimestampFormatter.DEFAULT));
+            staging.addAppender(fileAppender);
+            asyncAppender = staging;
+        } else {
+            asyncAppender = new AsyncAppenderBase(fileAppender);
+        }
+        asyncAppender.setName(file.getName());
+        asyncAppender.setQueueType(queueType);
+        asyncAppender.setQueueSize(queueSize);
+        asyncAppender.setGarbageFree(garbageFree);
+        asyncAppender.setNeverBlock(neverBlock);
+        asyncAppender.setDiscardingThreshold(discardingThreshold);
+        asyncAppender.setVirtualWorker(virtualWorker);
+        asyncAppender.start();
+        if (!fileAppender.isStarted() || !asyncAppender.isStarted()) {
+            throw new IllegalStateException("Could not start the pipeline writing to [" + file + "]");
+        }
+    }
+
+    private static File directory() {
+        String dir = System.getProperty("benchmark.dir");
+        if (dir != null) {
+            return new File(dir);
+        }
+        File shm = new File("/dev/shm");
+        return shm.isDirectory() ? shm : new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public Logger getLogger(String name) {
+        return new Logger(name, asyncAppender);
+    }
+
+    /**
+     * Waits until the file holds at least <code>bytes</code> bytes, i.e. until
+     * the worker has written and flushed everything logged before.
+     */
+    public void awaitFileLength(long bytes) {
+        while (file.length() < bytes) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Stops the pipeline, flushing the queued events, and deletes the file.
+     *
+     * @return the length of the file once stopped
+     */
+    public long stop() {
+        asyncAppender.stop();
+        long length = file.length();
+        file.delete();
+        return length;
+    }
+
+    public void setQueueType(QueueType queueType) {
+        this.queueType = queueType;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setGarbageFree(boolean garbageFree) {
+        this.garbageFree = garbageFree;
+    }
+
+    public void setNeverBlock(boolean neverBlock) {
+        this.neverBlock = neverBlock;
+    }
+
+    public void setDiscardingThreshold(int discardingThreshold) {
+        this.discardingThreshold = discardingThreshold;
+    }
+
+    public void setPrudent(boolean prudent) {
+        this.prudent = prudent;
+    }
+
+    public void setFileChannel(boolean fileChannel) {
+        this.fileChannel = fileChannel;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Stripes the pipeline over <code>shards</code> queues and workers merged
+     * into the one file, see {@link ShardedAsyncAppender}.
+     */
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public void setVirtualWorker(boolean virtualWorker) {
+        this.virtualWorker = virtualWorker;
+    }
+
+    /**
+     * Has the callers encode into buffers of their own, collected after
+     * <code>lingerMillis</code>, see {@link StagingAsyncAppender}.
+     */
+    public void setStaging(long lingerMillis) {
+        this.stagingLinger = lingerMillis;
+    }
+}
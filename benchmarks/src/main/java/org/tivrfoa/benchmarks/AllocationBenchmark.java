@@ -0,0 +1,62 @@
+package org.tivrfoa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tivrfoa.BenchmarkPipeline;
+import org.tivrfoa.Logger;
+
+/**
+ * Meant to be run with <code>-prof gc</code>: <code>gc.alloc.rate.norm</code>
+ * is the number of bytes allocated per call, by the caller and by the worker
+ * together. With <code>garbageFree</code> it should stay at 0 once warm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AllocationBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean garbageFree;
+
+    private BenchmarkPipeline pipeline;
+    private Logger logger;
+    private Object arg = "GET /index.html";
+
+    @Setup
+    public void setUp() {
+        pipeline = new BenchmarkPipeline();
+        pipeline.setGarbageFree(garbageFree);
+        pipeline.start();
+        logger = pipeline.getLogger(AllocationBenchmark.class.getName());
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.stop();
+    }
+
+    @Benchmark
+    public void message() {
+        logger.info("request served");
+    }
+
+    @Benchmark
+    public void oneArg() {
+        logger.info("request {} served", arg);
+    }
+}
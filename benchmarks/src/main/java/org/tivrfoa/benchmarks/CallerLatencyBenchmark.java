@@ -0,0 +1,81 @@
+package org.tivrfoa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tivrfoa.BenchmarkPipeline;
+import org.tivrfoa.Logger;
+import org.tivrfoa.QueueType;
+
+/**
+ * Time spent in {@link Logger#info(String, Object)} by the calling thread, at
+ * 1, 4, 16 and 64 threads sharing one pipeline. Once the worker falls behind
+ * this includes the time blocked on a full queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallerLatencyBenchmark {
+
+    @Param({ "BLOCKING", "RING_BUFFER" })
+    public QueueType queueType;
+
+    @Param({ "false", "true" })
+    public boolean garbageFree;
+
+    private BenchmarkPipeline pipeline;
+    private Logger logger;
+
+    @Setup
+    public void setUp() {
+        pipeline = new BenchmarkPipeline();
+        pipeline.setQueueType(queueType);
+        pipeline.setGarbageFree(garbageFree);
+        pipeline.start();
+        logger = pipeline.getLogger(CallerLatencyBenchmark.class.getName());
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1() {
+        logger.info("request {} served", "GET /index.html");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4() {
+        logger.info("request {} served", "GET /index.html");
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16() {
+        logger.info("request {} served", "GET /index.html");
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void threads64() {
+        logger.info("request {} served", "GET /index.html");
+    }
+}
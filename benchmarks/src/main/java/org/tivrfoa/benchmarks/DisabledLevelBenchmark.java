@@ -0,0 +1,78 @@
+package org.tivrfoa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tivrfoa.BenchmarkPipeline;
+import org.tivrfoa.Logger;
+
+/**
+ * Cost of calls below the configured level (<code>INFO</code> in the
+ * benchmarks' <code>log.properties</code>), which should be close to the
+ * empty <code>baseline</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisabledLevelBenchmark {
+
+    private BenchmarkPipeline pipeline;
+    private Logger logger;
+    private Object arg = "GET /index.html";
+
+    @Setup
+    public void setUp() {
+        pipeline = new BenchmarkPipeline();
+        pipeline.start();
+        logger = pipeline.getLogger(DisabledLevelBenchmark.class.getName());
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.stop();
+    }
+
+    @Benchmark
+    public void baseline() {
+    }
+
+    @Benchmark
+    public void debugMessage() {
+        logger.debug("request served");
+    }
+
+    @Benchmark
+    public void debugOneArg() {
+        logger.debug("request {} served", arg);
+    }
+
+    @Benchmark
+    public void debugVarargs() {
+        logger.debug("request {} {} {} {}", arg, arg, arg, arg);
+    }
+
+    @Benchmark
+    public void debugGuarded() {
+        if (logger.isDebugEnabled()) {
+            logger.debug("request {} {} {} {}", arg, arg, arg, arg);
+        }
+    }
+
+    @Benchmark
+    public void debugSupplier() {
+        logger.debug(() -> "request " + arg + " served");
+    }
+}
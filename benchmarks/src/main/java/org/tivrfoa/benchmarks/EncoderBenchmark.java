@@ -0,0 +1,75 @@
+package org.tivrfoa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tivrfoa.BinaryEncoder;
+import org.tivrfoa.EncodeBuffer;
+import org.tivrfoa.Encoder;
+import org.tivrfoa.LogEvent;
+import org.tivrfoa.PatternLayout;
+
+/**
+ * Time the worker spends encoding an event with the default pattern or with
+ * the {@link BinaryEncoder}. The <code>bytes</code> and <code>events</code>
+ * counters give the size of an encoded event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncoderBenchmark {
+
+    @Param({ "TEXT", "BINARY" })
+    public String format;
+
+    private Encoder encoder;
+    private final EncodeBuffer out = new EncodeBuffer(64 * 1024);
+    private final LogEvent event = new LogEvent();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+        public long bytes;
+        public long events;
+    }
+
+    @Setup
+    public void setUp() {
+        encoder = format.equals("BINARY") ? new BinaryEncoder() : new PatternLayout();
+        event.populate(org.tivrfoa.Level.INFO, EncoderBenchmark.class.getName(), "GET {} {} in {} ms");
+        event.setParameters("/index.html", 200, 12L);
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        out.clear();
+    }
+
+    @Benchmark
+    public int encode(Size size) {
+        if (out.length() > 60 * 1024) {
+            out.clear();
+        }
+        int before = out.length();
+        encoder.encode(event, out);
+        int length = out.length() - before;
+        size.bytes += length;
+        size.events++;
+        return length;
+    }
+}
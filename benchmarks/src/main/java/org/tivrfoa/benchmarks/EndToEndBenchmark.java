@@ -0,0 +1,86 @@
+package org.tivrfoa.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tivrfoa.BenchmarkPipeline;
+import org.tivrfoa.Logger;
+
+/**
+ * Events per second from the call to the file: each invocation logs a batch
+ * and only returns once the worker has written and flushed it.
+ * <p>
+ * <code>STREAM</code> and <code>FILE_CHANNEL</code> are the two output paths
+ * of a regular {@link org.tivrfoa.FileAppender}, <code>PRUDENT</code> locks
+ * the file for each write, <code>SHARDED</code> stripes the producers over
+ * four queues merged into the file and <code>STAGING</code> has them encode
+ * into buffers of their own, with a 1 ms linger since each invocation waits
+ * for its last events. Run with <code>-t 4</code> to add
+ * producers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    private static final int BATCH = 1000;
+    private static final String MESSAGE = "GET /index.html 200";
+    private static final long LINE_LENGTH = (MESSAGE + "\n")
+            .getBytes(StandardCharsets.UTF_8).length;
+
+    @Param({ "STREAM", "FILE_CHANNEL", "PRUDENT", "SHARDED", "STAGING" })
+    public String output;
+
+    private BenchmarkPipeline pipeline;
+    private Logger logger;
+    /**
+     * The file length once everything logged so far is written.
+     */
+    private final AtomicLong expectedLength = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        pipeline = new BenchmarkPipeline();
+        // fixed size lines, so the file length tells how many were written
+        pipeline.setPattern("%msg%n");
+        pipeline.setFileChannel(output.equals("FILE_CHANNEL"));
+        pipeline.setPrudent(output.equals("PRUDENT"));
+        pipeline.setShards(output.equals("SHARDED") ? 4 : 1);
+        if (output.equals("STAGING")) {
+            pipeline.setStaging(1);
+        }
+        pipeline.start();
+        logger = pipeline.getLogger(EndToEndBenchmark.class.getName());
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void logAndWrite() {
+        for (int i = 0; i < BATCH; i++) {
+            logger.info(MESSAGE);
+        }
+        pipeline.awaitFileLength(expectedLength.addAndGet(BATCH * LINE_LENGTH));
+    }
+}
@@ -0,0 +1,72 @@
+package org.tivrfoa.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tivrfoa.BenchmarkPipeline;
+import org.tivrfoa.Logger;
+
+/**
+ * Caller latency with more producers than the worker can keep up with and a
+ * small queue, so that the queue is full most of the time. With
+ * <code>neverBlock</code> the callers drop their events instead of waiting:
+ * the share of dropped events is printed when the trial ends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class QueueFullBenchmark {
+
+    private static final String MESSAGE = "GET /index.html 200";
+    private static final long LINE_LENGTH = (MESSAGE + "\n")
+            .getBytes(StandardCharsets.UTF_8).length;
+
+    @Param({ "false", "true" })
+    public boolean neverBlock;
+
+    private BenchmarkPipeline pipeline;
+    private Logger logger;
+    private final LongAdder logged = new LongAdder();
+
+    @Setup
+    public void setUp() {
+        pipeline = new BenchmarkPipeline();
+        pipeline.setPattern("%msg%n");
+        pipeline.setQueueSize(64);
+        pipeline.setNeverBlock(neverBlock);
+        pipeline.start();
+        logger = pipeline.getLogger(QueueFullBenchmark.class.getName());
+    }
+
+    @TearDown
+    public void tearDown() {
+        long written = pipeline.stop() / LINE_LENGTH;
+        long total = logged.sum();
+        System.out.printf("%nneverBlock=%s logged=%d written=%d dropped=%.2f%%%n", neverBlock, total, written,
+                total == 0 ? 0.0 : 100.0 * (total - written) / total);
+    }
+
+    @Benchmark
+    public void info() {
+        logger.info(MESSAGE);
+        logged.increment();
+    }
+}
@@ -0,0 +1,104 @@
+package org.tivrfoa.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tivrfoa.BenchmarkPipeline;
+import org.tivrfoa.Logger;
+import org.tivrfoa.QueueType;
+
+/**
+ * Events per second with 100k virtual threads logging at once: each
+ * invocation starts them all behind a latch, opens it, and returns once
+ * every event is written.
+ * <p>
+ * Needs JDK 21 or later at run time; the virtual threads are created through
+ * reflection so that the module still builds on JDK 17. Run with
+ * <code>-Djdk.tracePinnedThreads=full</code> to check that no producer pins
+ * its carrier thread while the queue is full.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    private static final int THREADS = 100_000;
+    private static final String MESSAGE = "GET /index.html 200";
+    private static final long LINE_LENGTH = (MESSAGE + "\n")
+            .getBytes(StandardCharsets.UTF_8).length;
+
+    @Param({ "BLOCKING", "RING_BUFFER" })
+    public QueueType queueType;
+
+    @Param({ "false", "true" })
+    public boolean virtualWorker;
+
+    private BenchmarkPipeline pipeline;
+    private Logger logger;
+    private final AtomicLong expectedLength = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        pipeline = new BenchmarkPipeline();
+        pipeline.setPattern("%msg%n");
+        pipeline.setQueueType(queueType);
+        pipeline.setQueueSize(8192);
+        pipeline.setVirtualWorker(virtualWorker);
+        pipeline.start();
+        logger = pipeline.getLogger(VirtualThreadBenchmark.class.getName());
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(THREADS)
+    public void logFromVirtualThreads() throws InterruptedException {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        CountDownLatch go = new CountDownLatch(1);
+        for (int i = 0; i < THREADS; i++) {
+            executor.execute(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                logger.info(MESSAGE);
+            });
+        }
+        go.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        pipeline.awaitFileLength(expectedLength.addAndGet(THREADS * LINE_LENGTH));
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("VirtualThreadBenchmark needs JDK 21 or later", e);
+        }
+    }
+}
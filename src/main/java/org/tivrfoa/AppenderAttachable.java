@@ -0,0 +1,32 @@
+package org.tivrfoa;
+
+import java.util.List;
+
+/**
+ * Something that hands its events to a set of appenders.
+ */
+public interface AppenderAttachable {
+
+    void addAppender(UnsynchronizedAppenderBase appender);
+
+    /**
+     * Returns the attached appenders, in the order they were added.
+     */
+    List<UnsynchronizedAppenderBase> getAppenders();
+
+    /**
+     * Returns the attached appender named <code>name</code>, or null.
+     */
+    UnsynchronizedAppenderBase getAppender(String name);
+
+    boolean isAttached(UnsynchronizedAppenderBase appender);
+
+    /**
+     * Detaches <code>appender</code> without stopping it.
+     *
+     * @return true if it was attached
+     */
+    boolean detachAppender(UnsynchronizedAppenderBase appender);
+
+    void detachAndStopAllAppenders();
+}
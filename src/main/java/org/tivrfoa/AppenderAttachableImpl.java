@@ -0,0 +1,144 @@
+package org.tivrfoa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The appenders of an {@link AsyncAppenderBase}, and the fan-out of each
+ * batch to them.
+ * <p>
+ * When several {@link OutputStreamAppender}s share the same {@link Encoder}
+ * instance, the batch is encoded once for all of them, see
+ * {@link EncodedBatch}.
+ */
+public class AppenderAttachableImpl implements AppenderAttachable {
+
+    private final CopyOnWriteArrayList<UnsynchronizedAppenderBase> appenders = new CopyOnWriteArrayList<>();
+
+    /**
+     * The shared encodings, reused from one batch to the next. Only touched
+     * by the thread calling {@link #appendLoopOnAppenders(List)}.
+     */
+    private final List<EncodedBatch> encodings = new ArrayList<>();
+
+    @Override
+    public void addAppender(UnsynchronizedAppenderBase appender) {
+        if (appender == null) {
+            throw new IllegalArgumentException("Null argument disallowed");
+        }
+        appenders.addIfAbsent(appender);
+    }
+
+    /**
+     * Hands <code>events</code> to every attached appender.
+     */
+    public void appendLoopOnAppenders(List<LogEvent> events) {
+        List<UnsynchronizedAppenderBase> current = appenders;
+        if (current.size() == 1) {
+            current.get(0).doAppendBatch(events);
+            return;
+        }
+        shareEncodings(current, events);
+        for (UnsynchronizedAppenderBase appender : current) {
+            appender.doAppendBatch(events);
+        }
+        for (UnsynchronizedAppenderBase appender : current) {
+            if (appender instanceof OutputStreamAppender) {
+                ((OutputStreamAppender) appender).setSharedEncoding(null);
+            }
+        }
+    }
+
+    /**
+     * Gives one {@link EncodedBatch} to the output stream appenders that
+     * encode alike, when there are at least two of them.
+     */
+    private void shareEncodings(List<UnsynchronizedAppenderBase> current, List<LogEvent> events) {
+        for (int i = 0; i < current.size(); i++) {
+            if (!(current.get(i) instanceof OutputStreamAppender)) {
+                continue;
+            }
+            OutputStreamAppender appender = (OutputStreamAppender) current.get(i);
+            for (int j = 0; j < i; j++) {
+                if (current.get(j) instanceof OutputStreamAppender) {
+                    OutputStreamAppender previous = (OutputStreamAppender) current.get(j);
+                    if (previous.getEncoder() == appender.getEncoder()
+                            && previous.useDirectBuffers() == appender.useDirectBuffers()) {
+                        EncodedBatch shared = encodingFor(appender.getEncoder(), appender.useDirectBuffers());
+                        shared.reset(events);
+                        previous.setSharedEncoding(shared);
+                        appender.setSharedEncoding(shared);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private EncodedBatch encodingFor(Encoder encoder, boolean direct) {
+        for (EncodedBatch encoding : encodings) {
+            if (encoding.getEncoder() == encoder && encoding.isDirect() == direct) {
+                return encoding;
+            }
+        }
+        EncodedBatch encoding = new EncodedBatch(encoder, direct);
+        encodings.add(encoding);
+        return encoding;
+    }
+
+    /**
+     * Returns true if at least one attached appender is started.
+     */
+    public boolean isAnyStarted() {
+        for (UnsynchronizedAppenderBase appender : appenders) {
+            if (appender.isStarted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void stopAllAppenders() {
+        for (UnsynchronizedAppenderBase appender : appenders) {
+            appender.stop();
+        }
+    }
+
+    @Override
+    public List<UnsynchronizedAppenderBase> getAppenders() {
+        return Collections.unmodifiableList(appenders);
+    }
+
+    @Override
+    public UnsynchronizedAppenderBase getAppender(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (UnsynchronizedAppenderBase appender : appenders) {
+            if (name.equals(appender.getName())) {
+                return appender;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isAttached(UnsynchronizedAppenderBase appender) {
+        return appenders.contains(appender);
+    }
+
+    @Override
+    public boolean detachAppender(UnsynchronizedAppenderBase appender) {
+        return appenders.remove(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        for (UnsynchronizedAppenderBase appender : appenders) {
+            appender.stop();
+        }
+        appenders.clear();
+    }
+}
@@ -0,0 +1,254 @@
+package org.tivrfoa;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * The counters of one {@link AsyncAppenderBase} pipeline.
+ * <p>
+ * Whatever callers update is kept in striped {@link LongAdder}s, so that
+ * threads logging at the same time do not fight over one cache line; the
+ * histograms are only updated by the worker. The IO counters are kept by the
+ * attached {@link OutputStreamAppender}s and summed here.
+ * <p>
+ * The totals and the derived values are computed from the per-level counts
+ * and the histograms returned by the getters, so that a subclass can sum
+ * several pipelines by overriding those, see {@link ShardedAsyncAppender}.
+ */
+public class AppenderMetrics implements AppenderMetricsMXBean {
+
+    private static final Level[] LEVELS = Level.values();
+
+    private final AsyncAppenderBase appender;
+
+    final LongAdder[] enqueued = newCounters();
+    /**
+     * Events dropped: those below WARN while the queue is nearly full, and
+     * any event refused by a full queue in <code>neverBlock</code> mode.
+     */
+    final LongAdder[] discarded = newCounters();
+    final LongAdder[] written = newCounters();
+    /**
+     * Events logged while the appender was stopping, or after, and not
+     * written.
+     */
+    final LongAdder[] lost = newCounters();
+    final LongAdder blockedCount = new LongAdder();
+    final LongAdder blockedNanos = new LongAdder();
+    final Histogram batchSizes = new Histogram();
+    final Histogram latencyMicros = new Histogram();
+
+    AppenderMetrics(AsyncAppenderBase appender) {
+        this.appender = appender;
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[LEVELS.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    void blocked(long nanos) {
+        blockedCount.increment();
+        blockedNanos.add(nanos);
+    }
+
+    private static long sum(ToLongFunction<Level> counter) {
+        long sum = 0;
+        for (Level level : LEVELS) {
+            sum += counter.applyAsLong(level);
+        }
+        return sum;
+    }
+
+    private static Map<String, Long> byLevel(ToLongFunction<Level> counter) {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (Level level : LEVELS) {
+            map.put(level.name(), counter.applyAsLong(level));
+        }
+        return map;
+    }
+
+    @Override
+    public String getName() {
+        return appender.getName();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return appender.getQueueSize();
+    }
+
+    @Override
+    public int getRemainingCapacity() {
+        return appender.isStarted() ? appender.getRemainingCapacity() : 0;
+    }
+
+    public long getEnqueuedCount(Level level) {
+        return enqueued[level.ordinal()].sum();
+    }
+
+    public long getDiscardedCount(Level level) {
+        return discarded[level.ordinal()].sum();
+    }
+
+    public long getWrittenCount(Level level) {
+        return written[level.ordinal()].sum();
+    }
+
+    public long getLostCount(Level level) {
+        return lost[level.ordinal()].sum();
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return sum(this::getEnqueuedCount);
+    }
+
+    @Override
+    public long getDiscardedCount() {
+        return sum(this::getDiscardedCount);
+    }
+
+    @Override
+    public long getWrittenCount() {
+        return sum(this::getWrittenCount);
+    }
+
+    @Override
+    public long getLostCount() {
+        return sum(this::getLostCount);
+    }
+
+    @Override
+    public Map<String, Long> getEnqueuedCountByLevel() {
+        return byLevel(this::getEnqueuedCount);
+    }
+
+    @Override
+    public Map<String, Long> getDiscardedCountByLevel() {
+        return byLevel(this::getDiscardedCount);
+    }
+
+    @Override
+    public Map<String, Long> getWrittenCountByLevel() {
+        return byLevel(this::getWrittenCount);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return sumOverOutputs(OutputStreamAppender::getBytesWritten);
+    }
+
+    @Override
+    public long getFlushCount() {
+        return sumOverOutputs(OutputStreamAppender::getFlushCount);
+    }
+
+    /**
+     * How many times the files were forced to the storage device.
+     */
+    @Override
+    public long getSyncCount() {
+        return sumOverOutputs(appender -> appender instanceof FileAppender ? ((FileAppender) appender).getSyncCount() : 0);
+    }
+
+    /**
+     * How many times a caller found the queue full and had to wait.
+     */
+    @Override
+    public long getBlockedCount() {
+        return blockedCount.sum();
+    }
+
+    /**
+     * Total time callers spent waiting for room in the queue.
+     */
+    @Override
+    public long getBlockedTimeNanos() {
+        return blockedNanos.sum();
+    }
+
+    @Override
+    public long getIoFailureCount() {
+        return sumOverOutputs(OutputStreamAppender::getIoFailureCount);
+    }
+
+    @Override
+    public long getIoRecoveryCount() {
+        return sumOverOutputs(OutputStreamAppender::getIoRecoveryCount);
+    }
+
+    /**
+     * Sums a counter over the attached appenders writing to an output stream.
+     */
+    private long sumOverOutputs(ToLongFunction<OutputStreamAppender> counter) {
+        long sum = 0;
+        for (UnsynchronizedAppenderBase attached : appender.getAppenders()) {
+            if (attached instanceof OutputStreamAppender) {
+                sum += counter.applyAsLong((OutputStreamAppender) attached);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * The number of events handed to the attached appenders per batch.
+     */
+    public Histogram getBatchSizeHistogram() {
+        return batchSizes;
+    }
+
+    /**
+     * The time from the event's timestamp to the end of the write of its
+     * batch, in microseconds. Its resolution is the one of the timestamps:
+     * milliseconds unless the pattern asks for more.
+     */
+    public Histogram getLatencyHistogram() {
+        return latencyMicros;
+    }
+
+    @Override
+    public double getMeanBatchSize() {
+        return getBatchSizeHistogram().getMean();
+    }
+
+    @Override
+    public long getBatchSizeP99() {
+        return getBatchSizeHistogram().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getMaxBatchSize() {
+        return getBatchSizeHistogram().getMax();
+    }
+
+    @Override
+    public int getTargetBatchSize() {
+        return appender.isStarted() ? appender.getTargetBatchSize() : 0;
+    }
+
+    @Override
+    public long getLatencyMicrosP50() {
+        return getLatencyHistogram().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getLatencyMicrosP99() {
+        return getLatencyHistogram().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getLatencyMicrosP999() {
+        return getLatencyHistogram().getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getMaxLatencyMicros() {
+        return getLatencyHistogram().getMax();
+    }
+}
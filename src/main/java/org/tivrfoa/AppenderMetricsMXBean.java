@@ -0,0 +1,64 @@
+package org.tivrfoa;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link AppenderMetrics}, registered by {@link LoggerContext}
+ * as <code>org.tivrfoa:type=AsyncAppender,name=&lt;file&gt;</code>.
+ * <p>
+ * Counts are totals since the pipeline started. Latencies are in
+ * microseconds, measured from the event's timestamp to the end of the
+ * batch that wrote it.
+ */
+public interface AppenderMetricsMXBean {
+
+    String getName();
+
+    int getQueueSize();
+
+    int getRemainingCapacity();
+
+    long getEnqueuedCount();
+
+    long getDiscardedCount();
+
+    long getWrittenCount();
+
+    long getLostCount();
+
+    Map<String, Long> getEnqueuedCountByLevel();
+
+    Map<String, Long> getDiscardedCountByLevel();
+
+    Map<String, Long> getWrittenCountByLevel();
+
+    long getBytesWritten();
+
+    long getFlushCount();
+
+    long getSyncCount();
+
+    long getBlockedCount();
+
+    long getBlockedTimeNanos();
+
+    long getIoFailureCount();
+
+    long getIoRecoveryCount();
+
+    double getMeanBatchSize();
+
+    long getBatchSizeP99();
+
+    long getMaxBatchSize();
+
+    int getTargetBatchSize();
+
+    long getLatencyMicrosP50();
+
+    long getLatencyMicrosP99();
+
+    long getLatencyMicrosP999();
+
+    long getMaxLatencyMicros();
+}
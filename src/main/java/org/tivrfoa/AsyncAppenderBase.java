@@ -1,18 +1,31 @@
 package org.tivrfoa;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
+public class AsyncAppenderBase extends UnsynchronizedAppenderBase implements AppenderAttachable {
 
-public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
+	AsyncQueue<LogEvent> queue;
 
-	BlockingQueue<String> blockingQueue;
-	FileAppender fileAppender;
+	/**
+	 * Same instance as {@link #queue} in garbage-free mode, null otherwise.
+	 */
+	RingBuffer<LogEvent> slots;
+
+	/**
+	 * The appenders the worker hands each batch to.
+	 */
+	AppenderAttachableImpl aai = new AppenderAttachableImpl();
+
+	public AsyncAppenderBase() {
+	}
 
 	public AsyncAppenderBase(FileAppender fileAppender) {
-		this.fileAppender = fileAppender;
+		addAppender(fileAppender);
 	}
 
 	/**
@@ -25,7 +38,82 @@ public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
 	int discardingThreshold = UNDEFINED;
 	boolean neverBlock = false;
 
+	QueueType queueType = QueueType.BLOCKING;
+
+	/**
+	 * Name of the {@link WaitStrategy} used by the worker when the queue type is
+	 * {@link QueueType#RING_BUFFER}.
+	 */
+	String waitStrategy = "BLOCKING";
+
+	/**
+	 * When true, events are preallocated in the slots of a ring buffer and
+	 * filled in place by {@link Logger}, so logging allocates nothing.
+	 */
+	boolean garbageFree = false;
+
+	/**
+	 * Counters of this pipeline, see {@link #getMetrics()}.
+	 */
+	final AppenderMetrics metrics = new AppenderMetrics(this);
+
+	/**
+	 * The default minimum time between two summaries of the discarded events.
+	 */
+	public static final long DEFAULT_DISCARD_REPORT_INTERVAL = 10_000;
+	long discardReportInterval = DEFAULT_DISCARD_REPORT_INTERVAL;
+
+	/**
+	 * When true the worker runs as a virtual thread, if the JVM has them.
+	 */
+	boolean virtualWorker = false;
+
+	/**
+	 * The most events the worker writes at once, 0 for the queue size.
+	 */
+	int maxBatchSize = 0;
+	/**
+	 * Milliseconds the worker may wait for more events before writing a
+	 * batch, 0 to write what the queue holds right away.
+	 */
+	long maxBatchDelay = 0;
+	/**
+	 * Milliseconds lingering and writing a batch should stay within, 0 for no
+	 * target.
+	 */
+	long targetLatency = 0;
+	/**
+	 * The longest the worker parks at once while lingering, so that it sees
+	 * new events soon after they arrive.
+	 */
+	static final long MAX_LINGER_PARK_NANOS = 50_000;
+	BatchController batchController;
+
+	/**
+	 * Set as soon as {@link #stop()} begins: from then on the callers count
+	 * their events as lost instead of enqueuing them.
+	 */
+	volatile boolean stopping;
+	/**
+	 * Callers between the {@link #stopping} check and the end of their
+	 * enqueue. The worker waits for them before its last drain, so that no
+	 * event lands in the queue after it.
+	 */
+	final LongAdder inFlight = new LongAdder();
+	/**
+	 * Set by the {@link LoggerContext} before it stops a pipeline it replaced.
+	 * The loggers already point to the new one, so the callers fenced off
+	 * retry there, and their events are not counted as lost.
+	 */
+	volatile boolean replaced;
+	/**
+	 * When true the worker forces the attached files to the storage device
+	 * after its last write.
+	 */
+	boolean forceOnStop = false;
+
 	Worker worker = new Worker();
+	Thread workerThread;
 
 	/**
 	 * The default maximum queue flush time allowed during appender stop. If the
@@ -40,21 +128,60 @@ public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
 		if (isStarted())
 			return;
 
+		if (aai.getAppenders().isEmpty()) {
+			System.err.println("No attached appenders found for the appender named [" + getName() + "].");
+			return;
+		}
 		if (queueSize < 1) {
 			System.err.println("Invalid queue size [" + queueSize + "]");
 			return;
 		}
-		blockingQueue = new ArrayBlockingQueue<String>(queueSize);
+		if (garbageFree && queueType != QueueType.RING_BUFFER) {
+			System.out.println("Garbage-free mode requires a ring buffer, setting queue type to " + QueueType.RING_BUFFER);
+			queueType = QueueType.RING_BUFFER;
+		}
+		queue = createQueue();
+		if (queue.capacity() != queueSize) {
+			System.out.println("Rounding queue size up to " + queue.capacity());
+			queueSize = queue.capacity();
+		}
 
 		if (discardingThreshold == UNDEFINED)
 			discardingThreshold = queueSize / 5;
 		System.out.println("Setting discardingThreshold to " + discardingThreshold);
-		worker.setDaemon(true);
-		worker.setName("AsyncAppender-Worker-" + getName());
+		batchController = new BatchController(maxBatchSize > 0 ? Math.min(maxBatchSize, queueSize) : queueSize,
+				TimeUnit.MILLISECONDS.toNanos(maxBatchDelay), TimeUnit.MILLISECONDS.toNanos(targetLatency));
+		stopping = false;
+		workerThread = newWorkerThread("AsyncAppender-Worker-" + getName(), worker);
 		// make sure this instance is marked as "started" before staring the worker
 		// Thread
 		super.start();
-		worker.start();
+		workerThread.start();
+	}
+
+	Thread newWorkerThread(String name, Runnable task) {
+		if (virtualWorker) {
+			Thread thread = VirtualThreads.newThread(name, task);
+			if (thread != null) {
+				return thread;
+			}
+			System.out.println("Virtual threads are not available on this JVM, the worker of [" + getName()
+					+ "] runs on a platform thread");
+		}
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	AsyncQueue<LogEvent> createQueue() {
+		if (garbageFree) {
+			slots = new RingBuffer<>(queueSize, WaitStrategy.forName(waitStrategy), LogEvent::new);
+			return slots;
+		}
+		if (queueType == QueueType.RING_BUFFER) {
+			return new RingBuffer<>(queueSize, WaitStrategy.forName(waitStrategy));
+		}
+		return new BlockingAsyncQueue<>(queueSize);
 	}
 
 	@Override
@@ -62,6 +189,10 @@ public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
 		if (!isStarted())
 			return;
 
+		// fence the callers off first, the worker then waits for those already
+		// enqueuing before its last drain
+		stopping = true;
+
 		// mark this appender as stopped so that Worker can also processPriorToRemoval
 		// if it is invoking
 		// aii.appendLoopOnAppenders
@@ -70,57 +201,276 @@ public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
 
 		// interrupt the worker thread so that it can terminate. Note that the
 		// interruption can be consumed by sub-appenders
-		worker.interrupt();
+		workerThread.interrupt();
 
 		InterruptUtil interruptUtil = new InterruptUtil();
 
 		try {
 			interruptUtil.maskInterruptFlag();
 
-			worker.join(maxFlushTime);
+			workerThread.join(maxFlushTime);
 
 			// check to see if the thread ended and if not add a warning message
-			if (worker.isAlive()) {
-				System.out.println("Max queue flush timeout (" + maxFlushTime + " ms) exceeded. Approximately "
-						+ blockingQueue.size() + " queued events were possibly discarded.");
+			if (workerThread.isAlive()) {
+				System.out.println("Max queue flush timeout (" + maxFlushTime + " ms) exceeded. The worker is still writing, "
+						+ queue.size() + " more events are queued; what it has not written is lost if the JVM exits now.");
 			} else {
 				System.out.println("Queue flush finished successfully within timeout.");
 			}
 
 		} catch (InterruptedException e) {
-			int remaining = blockingQueue.size();
+			int remaining = queue.size();
 			System.err.println("Failed to join worker thread. " + remaining + " queued events may be discarded.");
 		} finally {
 			interruptUtil.unmaskInterruptFlag();
 		}
+		reportLost();
+	}
+
+	/**
+	 * Forces the attached files to the storage device, see
+	 * {@link FileAppender#sync()}, skipping those the sync policy already
+	 * forced.
+	 *
+	 * @return whether there was at least one file and they were all forced
+	 */
+	boolean syncFiles() {
+		boolean any = false;
+		boolean synced = true;
+		for (UnsynchronizedAppenderBase appender : aai.getAppenders()) {
+			if (appender instanceof FileAppender) {
+				any = true;
+				synced &= ((FileAppender) appender).syncUnsynced();
+			}
+		}
+		return any && synced;
+	}
+
+	/**
+	 * Blocks until the events the calling thread logged through this appender
+	 * before the call are written and forced to the storage device: logging an
+	 * event, then calling this method, is a durable append.
+	 * <p>
+	 * The worker forces the files once per batch, after writing it, so the
+	 * callers whose requests land in the same batch share one
+	 * <code>force()</code>. This group commit costs a lot less than forcing
+	 * the file after each event.
+	 * <p>
+	 * Only the events this appender accepted are covered: those it discarded,
+	 * below the discarding threshold or on a full queue in
+	 * <code>neverBlock</code> mode, are never written, and the request does
+	 * not report them. See {@link #getDiscardedCount(Level)}.
+	 *
+	 * @return whether the events were forced; false if the appender is
+	 *         stopping, has no file attached, a file failed to be forced, or
+	 *         the worker did not complete the request within
+	 *         {@link #getMaxFlushTime() maxFlushTime}
+	 */
+	public boolean sync() {
+		if (!isStarted()) {
+			return false;
+		}
+		SyncRequest request;
+		inFlight.increment();
+		try {
+			if (stopping) {
+				return false;
+			}
+			request = new SyncRequest();
+			if (garbageFree) {
+				long sequence = nextUninterruptibly();
+				slots.get(sequence).syncRequest = request;
+				slots.publish(sequence);
+			} else {
+				LogEvent marker = new LogEvent();
+				marker.syncRequest = request;
+				putUninterruptibly(marker);
+			}
+		} finally {
+			inFlight.decrement();
+		}
+		return request.await(maxFlushTime);
+	}
+
+	void reportLost() {
+		long lost = getLostCount();
+		if (lost > 0) {
+			System.err.println(lost + " events logged to [" + getName() + "] while it was stopping were lost.");
+		}
+	}
+
+	/**
+	 * Marks the caller as enqueuing, unless the appender is stopping: then the
+	 * event is counted as lost, unless the appender was replaced. Callers let go with
+	 * <code>inFlight.decrement()</code> once their event is enqueued.
+	 *
+	 * @return whether the caller may enqueue
+	 */
+	boolean enter(Level level) {
+		inFlight.increment();
+		if (stopping) {
+			inFlight.decrement();
+			if (!replaced) {
+				metrics.lost[level.ordinal()].increment();
+			}
+			return false;
+		}
+		return true;
+	}
+
+	void setReplaced(boolean replaced) {
+		this.replaced = replaced;
+	}
+
+	/**
+	 * Waits, up to <code>deadline</code> as given by {@link System#nanoTime()},
+	 * for the callers past {@link #enter(Level)} to finish enqueuing, draining
+	 * with <code>drain</code> meanwhile so that blocked callers get room.
+	 *
+	 * @return whether they all finished
+	 */
+	boolean awaitInFlight(long deadline, Runnable drain) {
+		while (inFlight.sum() > 0) {
+			if (System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			drain.run();
+			Thread.yield();
+		}
+		return true;
 	}
 
 	@Override
-	protected void append(String msg) {
-		/*if (isQueueBelowDiscardingThreshold() && isDiscardable(eventObject)) {
+	protected void append(LogEvent event) {
+		if (garbageFree) {
+			LogEvent slot = claim(event.getLevel());
+			if (slot != null) {
+				slot.copyFrom(event);
+				publish(slot);
+			}
 			return;
-		}*/
-		put(msg);
+		}
+		if (!enter(event.getLevel())) {
+			return;
+		}
+		try {
+			if (isDiscardable(event.getLevel()) && isQueueBelowDiscardingThreshold()) {
+				metrics.discarded[event.getLevel().ordinal()].increment();
+				return;
+			}
+			put(event);
+		} finally {
+			inFlight.decrement();
+		}
 	}
 
-	private boolean isQueueBelowDiscardingThreshold() {
-		return (blockingQueue.remainingCapacity() < discardingThreshold);
+	/**
+	 * Returns an event of level <code>level</code> for the caller to fill in
+	 * and hand back through {@link #publish(LogEvent)}, or null if the event
+	 * must be dropped.
+	 * <p>
+	 * Events below WARN are dropped while the remaining capacity of the queue
+	 * is below the discarding threshold, so that the callers do not block on
+	 * them and the room left goes to warnings and errors.
+	 * <p>
+	 * In garbage-free mode this is the event preallocated in the next ring
+	 * buffer slot, which stays claimed until it is published, so callers must
+	 * always publish what they claim.
+	 */
+	LogEvent claim(Level level) {
+		if (!isStarted() && !stopping) {
+			return null;
+		}
+		if (!enter(level)) {
+			return null;
+		}
+		LogEvent event = claimSlot(level);
+		if (event == null) {
+			inFlight.decrement();
+		}
+		return event;
+	}
+
+	private LogEvent claimSlot(Level level) {
+		if (isDiscardable(level) && isQueueBelowDiscardingThreshold()) {
+			metrics.discarded[level.ordinal()].increment();
+			return null;
+		}
+		if (!garbageFree) {
+			return new LogEvent();
+		}
+		long sequence = slots.tryNext();
+		if (sequence < 0 && !neverBlock) {
+			long start = System.nanoTime();
+			sequence = nextUninterruptibly();
+			metrics.blocked(System.nanoTime() - start);
+		}
+		if (sequence < 0) {
+			metrics.discarded[level.ordinal()].increment();
+			return null;
+		}
+		LogEvent event = slots.get(sequence);
+		event.sequence = sequence;
+		return event;
+	}
+
+	void publish(LogEvent event) {
+		try {
+			if (garbageFree) {
+				slots.publish(event.sequence);
+				metrics.enqueued[event.getLevel().ordinal()].increment();
+			} else {
+				put(event);
+			}
+		} finally {
+			inFlight.decrement();
+		}
 	}
 
-	private void put(String msg) {
-		if (neverBlock) {
-			blockingQueue.offer(msg);
+	private long nextUninterruptibly() {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return slots.next();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	boolean isQueueBelowDiscardingThreshold() {
+		return discardingThreshold > 0 && getRemainingCapacity() < discardingThreshold;
+	}
+
+	static boolean isDiscardable(Level level) {
+		return level.levelInt <= Level.INFO_INT;
+	}
+
+	private void put(LogEvent event) {
+		if (queue.offer(event)) {
+			metrics.enqueued[event.getLevel().ordinal()].increment();
+		} else if (neverBlock) {
+			metrics.discarded[event.getLevel().ordinal()].increment();
 		} else {
-			putUninterruptibly(msg);
+			long start = System.nanoTime();
+			putUninterruptibly(event);
+			metrics.blocked(System.nanoTime() - start);
+			metrics.enqueued[event.getLevel().ordinal()].increment();
 		}
 	}
 
-	private void putUninterruptibly(String msg) {
+	private void putUninterruptibly(LogEvent event) {
 		boolean interrupted = false;
 		try {
 			while (true) {
 				try {
-					blockingQueue.put(msg);
+					queue.put(event);
 					break;
 				} catch (InterruptedException e) {
 					interrupted = true;
@@ -133,6 +483,48 @@ public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
 		}
 	}
 
+	/**
+	 * Attaches <code>appender</code>, which from then on is only written to by
+	 * the worker and skips its locks, see
+	 * {@link UnsynchronizedAppenderBase#isSingleWriter()}.
+	 */
+	@Override
+	public void addAppender(UnsynchronizedAppenderBase appender) {
+		if (appender != null) {
+			appender.claimSingleWriter(this);
+		}
+		aai.addAppender(appender);
+	}
+
+	@Override
+	public List<UnsynchronizedAppenderBase> getAppenders() {
+		return aai.getAppenders();
+	}
+
+	@Override
+	public UnsynchronizedAppenderBase getAppender(String name) {
+		return aai.getAppender(name);
+	}
+
+	@Override
+	public boolean isAttached(UnsynchronizedAppenderBase appender) {
+		return aai.isAttached(appender);
+	}
+
+	@Override
+	public boolean detachAppender(UnsynchronizedAppenderBase appender) {
+		boolean detached = aai.detachAppender(appender);
+		if (detached) {
+			appender.releaseSingleWriter(this);
+		}
+		return detached;
+	}
+
+	@Override
+	public void detachAndStopAllAppenders() {
+		aai.detachAndStopAllAppenders();
+	}
+
 	public int getQueueSize() {
 		return queueSize;
 	}
@@ -149,6 +541,35 @@ public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
 		this.discardingThreshold = discardingThreshold;
 	}
 
+	/**
+	 * Returns the number of events of level <code>level</code> discarded since
+	 * this appender was created.
+	 */
+	public long getDiscardedCount(Level level) {
+		return getMetrics().getDiscardedCount(level);
+	}
+
+	/**
+	 * Returns the counters of this pipeline, also exposed through JMX by
+	 * {@link LoggerContext}.
+	 */
+	public AppenderMetrics getMetrics() {
+		return metrics;
+	}
+
+	public long getDiscardReportInterval() {
+		return discardReportInterval;
+	}
+
+	/**
+	 * Sets the minimum time, in milliseconds, between two summary lines of the
+	 * discarded events. The summary is written by the worker with the next
+	 * batch once the interval has elapsed, and when the appender stops.
+	 */
+	public void setDiscardReportInterval(long discardReportInterval) {
+		this.discardReportInterval = discardReportInterval;
+	}
+
 	public int getMaxFlushTime() {
 		return maxFlushTime;
 	}
@@ -157,13 +578,118 @@ public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
 		this.maxFlushTime = maxFlushTime;
 	}
 
+	public boolean isForceOnStop() {
+		return forceOnStop;
+	}
+
 	/**
-	 * Returns the number of elements currently in the blocking queue.
+	 * When true, once the last events are written on stop, the attached
+	 * {@link FileAppender}s are forced to the storage device, see
+	 * {@link FileAppender#sync()}, so that the log survives a crash of the
+	 * machine right after the JVM exits.
+	 */
+	public void setForceOnStop(boolean forceOnStop) {
+		this.forceOnStop = forceOnStop;
+	}
+
+	/**
+	 * Returns the number of events logged while this appender was stopping, or
+	 * after, which were not written.
+	 */
+	public long getLostCount() {
+		return getMetrics().getLostCount();
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Sets the most events the worker writes at once, 0 (the default) for the
+	 * queue size.
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	public long getMaxBatchDelay() {
+		return maxBatchDelay;
+	}
+
+	/**
+	 * Lets the worker wait up to <code>maxBatchDelay</code> milliseconds after
+	 * the first event of a batch for more events, trading that much latency
+	 * for fewer writes and flushes. See {@link BatchController}.
+	 */
+	public void setMaxBatchDelay(long maxBatchDelay) {
+		this.maxBatchDelay = maxBatchDelay;
+	}
+
+	public long getTargetLatency() {
+		return targetLatency;
+	}
+
+	/**
+	 * Sets the milliseconds lingering and writing a batch should stay within:
+	 * the linger is cut short and the batches shrink when writing is slow.
+	 */
+	public void setTargetLatency(long targetLatency) {
+		this.targetLatency = targetLatency;
+	}
+
+	/**
+	 * The number of events the worker currently aims to write at once, 0
+	 * before the appender is started.
+	 */
+	public int getTargetBatchSize() {
+		BatchController controller = batchController;
+		return controller == null ? 0 : controller.getTargetBatchSize();
+	}
+
+	/**
+	 * Returns the number of elements currently in the queue.
 	 *
 	 * @return number of elements currently in the queue.
 	 */
 	public int getNumberOfElementsInQueue() {
-		return blockingQueue.size();
+		return queue.size();
+	}
+
+	public QueueType getQueueType() {
+		return queueType;
+	}
+
+	public void setQueueType(QueueType queueType) {
+		this.queueType = queueType;
+	}
+
+	public String getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public void setWaitStrategy(String waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public boolean isGarbageFree() {
+		return garbageFree;
+	}
+
+	public void setGarbageFree(boolean garbageFree) {
+		this.garbageFree = garbageFree;
+	}
+
+	public boolean isVirtualWorker() {
+		return virtualWorker;
+	}
+
+	/**
+	 * Runs the worker as a virtual thread (JDK 21 and later), so that it does
+	 * not hold a platform thread while the queue is empty. Falls back to a
+	 * platform thread on older JVMs.
+	 */
+	public void setVirtualWorker(boolean virtualWorker) {
+		this.virtualWorker = virtualWorker;
 	}
 
 	public void setNeverBlock(boolean neverBlock) {
@@ -175,48 +701,279 @@ public class AsyncAppenderBase extends UnsynchronizedAppenderBase {
 	}
 
 	/**
-	 * The remaining capacity available in the blocking queue.
+	 * The remaining capacity available in the queue.
 	 * <p>
-	 * See also {@link java.util.concurrent.BlockingQueue#remainingCapacity()
-	 * BlockingQueue#remainingCapacity()}
+	 * See also {@link AsyncQueue#remainingCapacity()}
 	 *
 	 * @return the remaining capacity
 	 * 
 	 */
 	public int getRemainingCapacity() {
-		return blockingQueue.remainingCapacity();
+		return queue.remainingCapacity();
 	}
 
-	class Worker extends Thread {
+	class Worker implements Runnable, EventHandler<LogEvent> {
+
+		/**
+		 * The events of the current drain, handed to the attached appenders at
+		 * the end of the batch.
+		 */
+		private final List<LogEvent> batch = new ArrayList<>();
+		/**
+		 * The {@link #sync()} callers waiting for the current batch.
+		 */
+		private final List<SyncRequest> syncRequests = new ArrayList<>();
+
+		/**
+		 * The discarded counts already reported, by level.
+		 */
+		private final long[] reported = new long[metrics.discarded.length];
+		private final long[] writtenByLevel = new long[metrics.written.length];
+		private long lastReportMillis = System.currentTimeMillis();
 
 		public void run() {
+			boolean finished = false;
+			try {
+				process();
+				finished = true;
+			} finally {
+				if (!finished) {
+					died();
+				}
+				// the requests of a worker that died are failed, not left waiting
+				failSyncRequests();
+			}
+		}
+
+		/**
+		 * Called when an error escaped {@link #process()}: nothing writes the
+		 * queue any more, so the appender is marked stopped, the callers are
+		 * fenced off, and the events queued or still coming from the callers
+		 * already enqueuing are discarded, counted as lost, so that none of
+		 * them stays blocked on the full queue.
+		 */
+		private void died() {
+			stopping = true;
+			started = false;
+			System.err.println("The worker of [" + getName() + "] died, the appender is stopped and the events it holds are lost.");
+			for (int i = 0; i < batch.size(); i++) {
+				metrics.lost[batch.get(i).getLevel().ordinal()].increment();
+			}
+			batch.clear();
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxFlushTime);
+			if (!awaitInFlight(deadline, this::discardQueued)) {
+				System.err.println("Some callers of [" + getName() + "] did not finish enqueuing within "
+						+ maxFlushTime + " ms.");
+			}
+			discardQueued();
+			reportLost();
+		}
+
+		private void discardQueued() {
+			while (queue.drainAvailable(this::discard, queueSize) > 0) {
+				queue.release();
+			}
+		}
+
+		private void discard(LogEvent e, boolean endOfBatch) {
+			if (e.syncRequest != null) {
+				syncRequests.add(e.syncRequest);
+				e.syncRequest = null;
+				return;
+			}
+			metrics.lost[e.getLevel().ordinal()].increment();
+		}
+
+		private void process() {
 			AsyncAppenderBase parent = AsyncAppenderBase.this;
 
 			// loop while the parent is started
 			while (parent.isStarted()) {
+				boolean filled;
 				try {
-					List<String> elements = new ArrayList<>();
-					String e0 = parent.blockingQueue.take();
-					elements.add(e0);
-					parent.blockingQueue.drainTo(elements);
-					for (var e : elements) {
-						fileAppender.doAppend(e);
-					}
+					parent.queue.drain(this, batchController.getTargetBatchSize());
+					filled = linger();
 				} catch (InterruptedException e1) {
 					// exit if interrupted
 					break;
 				}
+				writeBatch(filled);
 			}
 
 			System.out.println("Worker thread will flush remaining events before exiting. ");
 
-			for (String e : parent.blockingQueue) {
-				fileAppender.doAppend(e);
-				parent.blockingQueue.remove(e);
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxFlushTime);
+			if (!awaitInFlight(deadline, this::drainRemaining)) {
+				System.err.println("Some callers of [" + getName() + "] did not finish enqueuing within "
+						+ maxFlushTime + " ms, their events may be lost.");
 			}
+			drainRemaining();
+			addDiscardReport(true);
+			addLostReport();
+			writeBatch(false);
 
-			fileAppender.stop();
+			if (forceOnStop) {
+				syncFiles();
+			}
+			aai.stopAllAppenders();
+		}
+
+		/**
+		 * Writes what the queue holds, as one batch unless it holds more than
+		 * <code>queueSize</code> events.
+		 */
+		private void drainRemaining() {
+			while (true) {
+				if (batch.size() >= queueSize) {
+					writeBatch(false);
+				}
+				if (queue.drainAvailable(this, queueSize - batch.size()) == 0) {
+					break;
+				}
+			}
+			writeBatch(false);
+		}
+
+		private void addLostReport() {
+			long lost = metrics.getLostCount();
+			if (lost > 0) {
+				batch.add(new LogEvent(Level.WARN, AsyncAppenderBase.class.getName(),
+						lost + " events logged while the appender was stopping were lost"));
+			}
+		}
+
+		@Override
+		public void onEvent(LogEvent e, boolean endOfBatch) {
+			if (e.syncRequest != null) {
+				syncRequests.add(e.syncRequest);
+				e.syncRequest = null;
+				return;
+			}
+			batch.add(e);
+		}
+
+		/**
+		 * Keeps draining until the batch reaches the target size or the linger
+		 * delay is over.
+		 *
+		 * @return whether the batch reached the target size while lingering
+		 */
+		private boolean linger() {
+			long lingerNanos = batchController.lingerNanos();
+			if (lingerNanos == 0) {
+				return false;
+			}
+			int target = batchController.getTargetBatchSize();
+			long deadline = System.nanoTime() + lingerNanos;
+			while (batch.size() < target) {
+				if (queue.drainAvailable(this, target - batch.size()) > 0) {
+					continue;
+				}
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0 || !isStarted() || Thread.currentThread().isInterrupted()) {
+					return false;
+				}
+				LockSupport.parkNanos(Math.min(remaining, MAX_LINGER_PARK_NANOS));
+			}
+			return true;
+		}
+
+		/**
+		 * Hands the batch to the appenders, then gives its slots back to the
+		 * queue and lets the controller adapt to it.
+		 */
+		private void writeBatch(boolean filled) {
+			if (batch.isEmpty()) {
+				// a batch of sync requests only
+				queue.release();
+				completeSyncRequests();
+				return;
+			}
+			addDiscardReport(false);
+			int size = batch.size();
+			long start = System.nanoTime();
+			try {
+				aai.appendLoopOnAppenders(batch);
+				recordWritten();
+			} finally {
+				batch.clear();
+				queue.release();
+			}
+			completeSyncRequests();
+			batchController.batchWritten(size, filled, System.nanoTime() - start, queue.size());
+		}
+
+		/**
+		 * Forces the files once for all the callers waiting on the batch just
+		 * written.
+		 */
+		private void completeSyncRequests() {
+			if (syncRequests.isEmpty()) {
+				return;
+			}
+			boolean synced = syncFiles();
+			for (int i = 0; i < syncRequests.size(); i++) {
+				syncRequests.get(i).complete(synced);
+			}
+			syncRequests.clear();
+		}
+
+		private void failSyncRequests() {
+			for (int i = 0; i < syncRequests.size(); i++) {
+				syncRequests.get(i).complete(false);
+			}
+			syncRequests.clear();
+		}
+
+		/**
+		 * Counts the events of the batch just written, and records the batch
+		 * size and the latency of each event.
+		 */
+		private void recordWritten() {
+			if (!aai.isAnyStarted()) {
+				return;
+			}
+			Instant now = Instant.now();
+			long nowMicros = now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+			for (int i = 0; i < batch.size(); i++) {
+				LogEvent event = batch.get(i);
+				writtenByLevel[event.getLevel().ordinal()]++;
+				metrics.latencyMicros.record(nowMicros - (event.getEpochSecond() * 1_000_000 + event.getNanoOfSecond() / 1000));
+			}
+			for (int i = 0; i < writtenByLevel.length; i++) {
+				if (writtenByLevel[i] > 0) {
+					metrics.written[i].add(writtenByLevel[i]);
+					writtenByLevel[i] = 0;
+				}
+			}
+			metrics.batchSizes.record(batch.size());
+		}
+
+		/**
+		 * Adds a WARN event counting the events discarded since the last
+		 * report, if there are any and the report interval has elapsed.
+		 */
+		private void addDiscardReport(boolean force) {
+			long now = System.currentTimeMillis();
+			if (!force && now - lastReportMillis < discardReportInterval) {
+				return;
+			}
+			lastReportMillis = now;
+			long total = 0;
+			StringBuilder byLevel = new StringBuilder();
+			for (Level level : Level.values()) {
+				long count = metrics.discarded[level.ordinal()].sum();
+				long delta = count - reported[level.ordinal()];
+				if (delta > 0) {
+					reported[level.ordinal()] = count;
+					total += delta;
+					byLevel.append(byLevel.length() == 0 ? "" : ", ").append(level).append('=').append(delta);
+				}
+			}
+			if (total > 0) {
+				batch.add(new LogEvent(Level.WARN, AsyncAppenderBase.class.getName(),
+						total + " events discarded because the queue was full or nearly full (" + byLevel + ")"));
+			}
 		}
 	}
 }
-
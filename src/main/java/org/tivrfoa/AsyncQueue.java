@@ -0,0 +1,51 @@
+package org.tivrfoa;
+
+/**
+ * A bounded queue with many producers and a single consumer, the worker of an
+ * {@link AsyncAppenderBase}.
+ * <p>
+ * The consumer side works in batches: every drain hands all the events that
+ * are ready, up to a maximum, to an {@link EventHandler}.
+ */
+public interface AsyncQueue<E> {
+
+    /**
+     * Inserts the event if there is room for it.
+     *
+     * @return false if the queue was full and the event was not inserted
+     */
+    boolean offer(E event);
+
+    /**
+     * Inserts the event, waiting for room if the queue is full.
+     */
+    void put(E event) throws InterruptedException;
+
+    /**
+     * Waits until at least one event is available and hands the available
+     * events, at most <code>maxBatchSize</code> of them, to the handler.
+     *
+     * @return the number of events handed to the handler
+     */
+    int drain(EventHandler<? super E> handler, int maxBatchSize) throws InterruptedException;
+
+    /**
+     * Same as {@link #drain(EventHandler, int)} but returns 0 instead of
+     * waiting when the queue is empty.
+     */
+    int drainAvailable(EventHandler<? super E> handler, int maxBatchSize);
+
+    /**
+     * Lets the producers reuse what the drains handed out so far. A queue
+     * reusing its events, i.e. a preallocated {@link RingBuffer}, keeps them
+     * untouched until then, so that the consumer can build one batch out of
+     * several drains.
+     */
+    void release();
+
+    int size();
+
+    int remainingCapacity();
+
+    int capacity();
+}
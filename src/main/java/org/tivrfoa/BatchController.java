@@ -0,0 +1,94 @@
+package org.tivrfoa;
+
+/**
+ * Decides how many events the worker of an {@link AsyncAppenderBase} writes
+ * at once, and how long it waits for more before writing.
+ * <p>
+ * After the first event of a batch, the worker keeps draining the queue until
+ * the batch reaches the target size or the linger delay is over, Kafka
+ * producer style: a bounded wait buys fewer, bigger writes and flushes. The
+ * target size adapts after each write, between {@link #MIN_TARGET_BATCH_SIZE}
+ * and the maximum batch size:
+ * <ul>
+ * <li>it doubles when the events left in the queue reach it, or when the
+ * batch filled up before the linger was over, since the worker is falling
+ * behind;</li>
+ * <li>it halves when the queue is shallow and the worker lingers, so that a
+ * quiet period does not wait the whole linger for events that are not
+ * coming;</li>
+ * <li>it halves when writing a batch took longer than the target latency.</li>
+ * </ul>
+ * The linger itself is cut short so that lingering plus writing stays within
+ * the target latency. With neither a linger delay nor a target latency, the
+ * target stays at the maximum and each write takes what the queue holds.
+ * <p>
+ * Only the worker calls it, except {@link #getTargetBatchSize()} read by the
+ * metrics.
+ */
+final class BatchController {
+
+    static final int MIN_TARGET_BATCH_SIZE = 16;
+
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long targetLatencyNanos;
+
+    private volatile int targetBatchSize;
+    /**
+     * Moving average of the time spent writing a batch.
+     */
+    private long writeNanos;
+
+    /**
+     * @param maxBatchSize       the most events written at once
+     * @param maxDelayNanos      the longest the worker lingers for more events,
+     *                           0 to write what the queue holds right away
+     * @param targetLatencyNanos the time lingering and writing should stay
+     *                           within, 0 for no target
+     */
+    BatchController(int maxBatchSize, long maxDelayNanos, long targetLatencyNanos) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = maxDelayNanos;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.targetBatchSize = this.maxBatchSize;
+    }
+
+    int getTargetBatchSize() {
+        return targetBatchSize;
+    }
+
+    /**
+     * How long to wait for more events after the first one of a batch.
+     */
+    long lingerNanos() {
+        if (targetLatencyNanos == 0) {
+            return maxDelayNanos;
+        }
+        return Math.max(0, Math.min(maxDelayNanos, targetLatencyNanos - writeNanos));
+    }
+
+    /**
+     * Adapts the target size to the batch just written.
+     *
+     * @param size       the events in the batch
+     * @param filled     whether the batch reached the target size while lingering
+     * @param nanos      the time spent writing it
+     * @param queueDepth the events left in the queue
+     */
+    void batchWritten(int size, boolean filled, long nanos, int queueDepth) {
+        writeNanos += (nanos - writeNanos) / 8;
+        if (maxDelayNanos == 0 && targetLatencyNanos == 0) {
+            return;
+        }
+        int target = targetBatchSize;
+        int min = Math.min(MIN_TARGET_BATCH_SIZE, maxBatchSize);
+        if (targetLatencyNanos > 0 && nanos > targetLatencyNanos) {
+            target = Math.max(min, target / 2);
+        } else if (queueDepth >= target || filled) {
+            target = Math.min(maxBatchSize, target * 2);
+        } else if (queueDepth < target / 4 && size < target / 2 && lingerNanos() > 0) {
+            target = Math.max(min, target / 2);
+        }
+        targetBatchSize = target;
+    }
+}
@@ -0,0 +1,244 @@
+package org.tivrfoa;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An {@link Encoder} writing compact binary records instead of text: nothing
+ * is formatted, the timestamp is a delta from the previous record and the
+ * logger names, thread names and message patterns are written once, then
+ * referred to by id. {@link BinaryLogDecoder} turns the records back into
+ * text.
+ * <p>
+ * The format, all integers being unsigned LEB128 varints unless stated
+ * otherwise:
+ * <pre>
+ * record  := length type body      length counts the type and the body
+ * HEADER  := 0 "SLOG" version:byte timestamp:long(8 bytes) pattern:string timestampFormat:string
+ * DEFINE  := 1 id string
+ * EVENT   := 2 delta:zigzag level:byte threadId threadName:ref logger:ref message:ref count param*
+ * string  := byteLength utf8Bytes
+ * ref     := id | 0 string      0 when the dictionary is full
+ * param   := tag value          see the TAG_ constants
+ * </pre>
+ * A header starts each output, see {@link #reset()}, and also starts over the
+ * dictionary and the timestamp deltas, so that a file appended to by several
+ * runs stays readable. The timestamps are in nanoseconds since the epoch.
+ * <p>
+ * The encoder keeps the state of its output: each appender needs its own
+ * instance, and the records of two encoders cannot be mixed in one file.
+ */
+public class BinaryEncoder implements Encoder {
+
+    static final byte[] MAGIC = { 'S', 'L', 'O', 'G' };
+    static final int VERSION = 1;
+
+    static final int HEADER = 0;
+    static final int DEFINE = 1;
+    static final int EVENT = 2;
+
+    static final int TAG_NULL = 0;
+    static final int TAG_STRING = 1;
+    static final int TAG_INT = 2;
+    static final int TAG_LONG = 3;
+    static final int TAG_DOUBLE = 4;
+    static final int TAG_FLOAT = 5;
+    static final int TAG_BOOLEAN = 6;
+    static final int TAG_CHAR = 7;
+    static final int TAG_BYTE = 8;
+    static final int TAG_SHORT = 9;
+
+    public static final int DEFAULT_MAX_DICTIONARY_SIZE = 65536;
+
+    private final String pattern;
+    private final String timestampFormat;
+    private int maxDictionarySize = DEFAULT_MAX_DICTIONARY_SIZE;
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private boolean headerWritten;
+    private long lastTimestamp;
+
+    private final EncodeBuffer record = new EncodeBuffer(256);
+    private final EncodeBuffer text = new EncodeBuffer(256);
+
+    public BinaryEncoder() {
+        this(PatternLayout.DEFAULT_PATTERN, TimestampFormatter.DEFAULT);
+    }
+
+    /**
+     * @param pattern         the {@link PatternLayout} pattern the decoder uses
+     *                        by default
+     * @param timestampFormat the default format of its timestamps
+     */
+    public BinaryEncoder(String pattern, String timestampFormat) {
+        this.pattern = pattern;
+        this.timestampFormat = timestampFormat;
+    }
+
+    /**
+     * Starts over with a new header, an empty dictionary and the next event
+     * as the base timestamp.
+     */
+    @Override
+    public void reset() {
+        dictionary.clear();
+        headerWritten = false;
+    }
+
+    @Override
+    public void encode(LogEvent event, EncodeBuffer out) {
+        long timestamp = event.getEpochSecond() * 1_000_000_000L + event.getNanoOfSecond();
+        if (!headerWritten) {
+            writeHeader(timestamp, out);
+        }
+        int threadName = define(event.getThreadName(), out);
+        int logger = define(event.getLoggerName(), out);
+        int message = define(event.getMessage(), out);
+
+        record.clear();
+        record.put((byte) EVENT);
+        putVarLong(record, zigzag(timestamp - lastTimestamp));
+        lastTimestamp = timestamp;
+        record.put((byte) event.getLevel().ordinal());
+        putVarLong(record, event.getThreadId());
+        putRef(threadName, event.getThreadName());
+        putRef(logger, event.getLoggerName());
+        putRef(message, event.getMessage());
+        int count = event.getParameterCount();
+        putVarLong(record, count);
+        for (int i = 0; i < count; i++) {
+            putParameter(event.getParameter(i));
+        }
+        writeRecord(out);
+    }
+
+    private void writeHeader(long timestamp, EncodeBuffer out) {
+        record.clear();
+        record.put((byte) HEADER);
+        record.put(MAGIC);
+        record.put((byte) VERSION);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            record.put((byte) (timestamp >>> shift));
+        }
+        putString(pattern);
+        putString(timestampFormat);
+        writeRecord(out);
+        headerWritten = true;
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * Returns the id of <code>value</code>, writing its definition the first
+     * time, or 0 when it is not in the dictionary and the dictionary is full.
+     */
+    private int define(String value, EncodeBuffer out) {
+        if (value == null) {
+            value = "null";
+        }
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (dictionary.size() >= maxDictionarySize) {
+            return 0;
+        }
+        int newId = dictionary.size() + 1;
+        dictionary.put(value, newId);
+        record.clear();
+        record.put((byte) DEFINE);
+        putVarLong(record, newId);
+        putString(value);
+        writeRecord(out);
+        return newId;
+    }
+
+    private void putRef(int id, String value) {
+        putVarLong(record, id);
+        if (id == 0) {
+            putString(value);
+        }
+    }
+
+    private void putParameter(Object param) {
+        if (param == null) {
+            record.put((byte) TAG_NULL);
+        } else if (param instanceof String) {
+            record.put((byte) TAG_STRING);
+            putString((String) param);
+        } else if (param instanceof Integer) {
+            record.put((byte) TAG_INT);
+            putVarLong(record, zigzag((Integer) param));
+        } else if (param instanceof Long) {
+            record.put((byte) TAG_LONG);
+            putVarLong(record, zigzag((Long) param));
+        } else if (param instanceof Double) {
+            record.put((byte) TAG_DOUBLE);
+            putVarLong(record, Double.doubleToRawLongBits((Double) param));
+        } else if (param instanceof Float) {
+            record.put((byte) TAG_FLOAT);
+            putVarLong(record, Float.floatToRawIntBits((Float) param) & 0xffffffffL);
+        } else if (param instanceof Boolean) {
+            record.put((byte) TAG_BOOLEAN);
+            record.put((byte) ((Boolean) param ? 1 : 0));
+        } else if (param instanceof Character) {
+            record.put((byte) TAG_CHAR);
+            putVarLong(record, (Character) param);
+        } else if (param instanceof Byte) {
+            record.put((byte) TAG_BYTE);
+            record.put((Byte) param);
+        } else if (param instanceof Short) {
+            record.put((byte) TAG_SHORT);
+            putVarLong(record, zigzag((Short) param));
+        } else {
+            // the other immutable types render as their toString()
+            record.put((byte) TAG_STRING);
+            putString(MessageFormatter.format("{}", param));
+        }
+    }
+
+    private void putString(String value) {
+        text.clear();
+        text.putUtf8(value);
+        putVarLong(record, text.length());
+        record.put(text.buffer(), 0, text.length());
+    }
+
+    private void writeRecord(EncodeBuffer out) {
+        putVarLong(out, record.length());
+        out.put(record.buffer(), 0, record.length());
+    }
+
+    static void putVarLong(EncodeBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public String getTimestampFormat() {
+        return timestampFormat;
+    }
+
+    public int getMaxDictionarySize() {
+        return maxDictionarySize;
+    }
+
+    /**
+     * Sets how many distinct names and message patterns are given an id.
+     * Past that, new ones are written in full in each record, which keeps
+     * messages built by concatenation from growing the dictionary forever.
+     */
+    public void setMaxDictionarySize(int maxDictionarySize) {
+        this.maxDictionarySize = maxDictionarySize;
+    }
+}
@@ -0,0 +1,311 @@
+package org.tivrfoa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the records written by a {@link BinaryEncoder} back into events.
+ * <p>
+ * Also a command line tool printing binary logs as text:
+ * <pre>
+ * java -cp simple-logger.jar org.tivrfoa.BinaryLogDecoder [--pattern p] [--timestamp-format f] [file...]
+ * </pre>
+ * Without a file, or with <code>-</code>, it reads the standard input. The
+ * lines are laid out with the pattern and timestamp format recorded in the
+ * header of each output unless they are given.
+ */
+public class BinaryLogDecoder implements Closeable {
+
+    private static final Level[] LEVELS = Level.values();
+
+    private final InputStream in;
+    private final List<String> dictionary = new ArrayList<>();
+    private final LogEvent event = new LogEvent();
+    private byte[] record = new byte[256];
+    private int position;
+    private int limit;
+    private boolean headerRead;
+    private long lastTimestamp;
+    private String pattern;
+    private String timestampFormat;
+
+    public BinaryLogDecoder(InputStream in) {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 64 * 1024);
+    }
+
+    /**
+     * Returns the next event, the same instance each time, or null at the end
+     * of the input. A record cut short by the end of the input, as the last
+     * one of a file still being written can be, also ends it.
+     */
+    public LogEvent next() throws IOException {
+        while (readRecord()) {
+            int type = readByte();
+            if (type == BinaryEncoder.HEADER) {
+                readHeader();
+                continue;
+            }
+            if (!headerRead) {
+                throw new IOException("Not a binary log, it does not start with a header");
+            }
+            if (type == BinaryEncoder.DEFINE) {
+                int id = (int) readVarLong();
+                String value = readString();
+                while (dictionary.size() < id) {
+                    dictionary.add(null);
+                }
+                dictionary.set(id - 1, value);
+            } else if (type == BinaryEncoder.EVENT) {
+                readEvent();
+                return event;
+            }
+            // other types are from a newer version, skipped
+        }
+        return null;
+    }
+
+    /**
+     * The pattern recorded in the last header read.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * The timestamp format recorded in the last header read.
+     */
+    public String getTimestampFormat() {
+        return timestampFormat;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readHeader() throws IOException {
+        for (byte b : BinaryEncoder.MAGIC) {
+            if (readByte() != b) {
+                throw new IOException("Not a binary log, bad magic number");
+            }
+        }
+        int version = readByte();
+        if (version > BinaryEncoder.VERSION) {
+            throw new IOException("Unsupported binary log version " + version);
+        }
+        long timestamp = 0;
+        for (int i = 0; i < 8; i++) {
+            timestamp = (timestamp << 8) | readByte();
+        }
+        lastTimestamp = timestamp;
+        pattern = readString();
+        timestampFormat = readString();
+        dictionary.clear();
+        headerRead = true;
+    }
+
+    private void readEvent() throws IOException {
+        long timestamp = lastTimestamp + unzigzag(readVarLong());
+        lastTimestamp = timestamp;
+        int level = readByte();
+        if (level >= LEVELS.length) {
+            throw new IOException("Unknown level " + level);
+        }
+        long threadId = readVarLong();
+        String threadName = readRef();
+        String loggerName = readRef();
+        String message = readRef();
+        event.restore(Math.floorDiv(timestamp, 1_000_000_000L), Math.floorMod(timestamp, 1_000_000_000L),
+                LEVELS[level], threadId, threadName, loggerName, message);
+        int count = (int) readVarLong();
+        if (count > 0) {
+            Object[] params = new Object[count];
+            for (int i = 0; i < count; i++) {
+                params[i] = readParameter();
+            }
+            event.setParameters(params);
+        }
+    }
+
+    private String readRef() throws IOException {
+        int id = (int) readVarLong();
+        if (id == 0) {
+            return readString();
+        }
+        String value = id <= dictionary.size() ? dictionary.get(id - 1) : null;
+        // the definition can be missing if its bytes were lost on a write failure
+        return value != null ? value : "<unknown #" + id + ">";
+    }
+
+    private Object readParameter() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+            case BinaryEncoder.TAG_NULL:
+                return null;
+            case BinaryEncoder.TAG_STRING:
+                return readString();
+            case BinaryEncoder.TAG_INT:
+                return (int) unzigzag(readVarLong());
+            case BinaryEncoder.TAG_LONG:
+                return unzigzag(readVarLong());
+            case BinaryEncoder.TAG_DOUBLE:
+                return Double.longBitsToDouble(readVarLong());
+            case BinaryEncoder.TAG_FLOAT:
+                return Float.intBitsToFloat((int) readVarLong());
+            case BinaryEncoder.TAG_BOOLEAN:
+                return readByte() != 0;
+            case BinaryEncoder.TAG_CHAR:
+                return (char) readVarLong();
+            case BinaryEncoder.TAG_BYTE:
+                return (byte) readByte();
+            case BinaryEncoder.TAG_SHORT:
+                return (short) unzigzag(readVarLong());
+            default:
+                throw new IOException("Unknown parameter type " + tag);
+        }
+    }
+
+    /**
+     * Loads the next record into {@link #record}, returning false at the end
+     * of the input.
+     */
+    private boolean readRecord() throws IOException {
+        long length = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift > 0) {
+                    System.err.println("The last record is truncated, ignoring it.");
+                }
+                return false;
+            }
+            length |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            if (shift > 28) {
+                throw new IOException("Corrupted record length");
+            }
+        }
+        if (length > record.length) {
+            record = new byte[(int) Math.max(length, record.length * 2L)];
+        }
+        int read = in.readNBytes(record, 0, (int) length);
+        if (read < length) {
+            System.err.println("The last record is truncated, ignoring it.");
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit) {
+            throw new EOFException("Record ends too early");
+        }
+        return record[position++] & 0xff;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted varint");
+    }
+
+    private String readString() throws IOException {
+        int length = (int) readVarLong();
+        if (length > limit - position) {
+            throw new EOFException("Record ends too early");
+        }
+        String value = new String(record, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void main(String[] args) {
+        String pattern = null;
+        String timestampFormat = null;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ((args[i].equals("--pattern") || args[i].equals("--timestamp-format")) && i + 1 < args.length) {
+                if (args[i].equals("--pattern")) {
+                    pattern = args[++i];
+                } else {
+                    timestampFormat = args[++i];
+                }
+            } else if (args[i].startsWith("--")) {
+                System.err.println("Usage: BinaryLogDecoder [--pattern p] [--timestamp-format f] [file...]");
+                System.exit(2);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.isEmpty()) {
+            files = Arrays.asList("-");
+        }
+        OutputStream out = new BufferedOutputStream(System.out, 64 * 1024);
+        try {
+            for (String file : files) {
+                InputStream in = file.equals("-") ? System.in : new FileInputStream(file);
+                try (BinaryLogDecoder decoder = new BinaryLogDecoder(in)) {
+                    decode(decoder, pattern, timestampFormat, out);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to decode: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void decode(BinaryLogDecoder decoder, String pattern, String timestampFormat, OutputStream out)
+            throws IOException {
+        EncodeBuffer buffer = new EncodeBuffer(64 * 1024);
+        PatternLayout layout = null;
+        String layoutPattern = null;
+        String layoutFormat = null;
+        LogEvent event;
+        while ((event = decoder.next()) != null) {
+            String p = pattern != null ? pattern : decoder.getPattern();
+            String f = timestampFormat != null ? timestampFormat : decoder.getTimestampFormat();
+            if (layout == null || !p.equals(layoutPattern) || !f.equals(layoutFormat)) {
+                layout = new PatternLayout(p, f);
+                layoutPattern = p;
+                layoutFormat = f;
+            }
+            layout.encode(event, buffer);
+            if (buffer.length() >= 32 * 1024) {
+                write(buffer, out);
+            }
+        }
+        write(buffer, out);
+    }
+
+    private static void write(EncodeBuffer buffer, OutputStream out) throws IOException {
+        ByteBuffer bytes = buffer.buffer();
+        out.write(bytes.array(), bytes.arrayOffset(), bytes.position());
+        buffer.clear();
+    }
+}
@@ -0,0 +1,77 @@
+package org.tivrfoa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * {@link AsyncQueue} backed by an {@link ArrayBlockingQueue}.
+ */
+public class BlockingAsyncQueue<E> implements AsyncQueue<E> {
+
+    private final ArrayBlockingQueue<E> queue;
+
+    /**
+     * Reused across drains. Only touched by the consumer thread.
+     */
+    private final List<E> batch = new ArrayList<>();
+
+    public BlockingAsyncQueue(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public boolean offer(E event) {
+        return queue.offer(event);
+    }
+
+    @Override
+    public void put(E event) throws InterruptedException {
+        queue.put(event);
+    }
+
+    @Override
+    public int drain(EventHandler<? super E> handler, int maxBatchSize) throws InterruptedException {
+        batch.add(queue.take());
+        queue.drainTo(batch, maxBatchSize - 1);
+        return dispatch(handler);
+    }
+
+    @Override
+    public int drainAvailable(EventHandler<? super E> handler, int maxBatchSize) {
+        queue.drainTo(batch, maxBatchSize);
+        return dispatch(handler);
+    }
+
+    @Override
+    public void release() {
+        // the events are handed over, nothing to release
+    }
+
+    private int dispatch(EventHandler<? super E> handler) {
+        int size = batch.size();
+        try {
+            for (int i = 0; i < size; i++) {
+                handler.onEvent(batch.get(i), i == size - 1);
+            }
+        } finally {
+            batch.clear();
+        }
+        return size;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    @Override
+    public int capacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+}
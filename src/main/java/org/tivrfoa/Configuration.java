@@ -0,0 +1,450 @@
+package org.tivrfoa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An immutable snapshot of the settings of <code>log.properties</code>.
+ * <p>
+ * {@link LoggerContext} holds the current one and replaces it as a whole on
+ * {@link LoggerContext#reconfigure(Configuration)}, so that nothing ever sees
+ * half of an old configuration and half of a new one. The properties are
+ * described in the README.
+ */
+public class Configuration {
+
+    public static final String RESOURCE_NAME = "log.properties";
+
+    /**
+     * How the files are written: lines laid out by the pattern, or the records
+     * of a {@link BinaryEncoder}.
+     */
+    public enum Format {
+        TEXT, BINARY
+    }
+
+    private static final String LEVEL_PREFIX = "level.";
+
+    private final URL source;
+
+    private final String outputFile;
+    private final Level level;
+    private final Map<String, Level> loggerLevels;
+    private final boolean reloadOnChange;
+    private final QueueType queueType;
+    private final int queueSize;
+    private final boolean neverBlock;
+    private final int discardingThreshold;
+    private final long discardReportInterval;
+    private final int maxBatchSize;
+    private final long maxBatchDelay;
+    private final long targetLatency;
+    private final int maxFlushTime;
+    private final boolean forceOnStop;
+    private final String waitStrategy;
+    private final String timestampFormat;
+    private final String pattern;
+    private final Format format;
+    private final boolean preciseTimestamps;
+    private final FlushPolicy flushPolicy;
+    private final SyncPolicy syncPolicy;
+    private final boolean syncOnError;
+    private final FileSize bufferSize;
+    private final boolean fileChannel;
+    private final boolean prudent;
+    private final boolean checkSingleWriter;
+    private final long prudentMaxLockHold;
+    private final boolean mappedFile;
+    private final FileSize mappedRegionSize;
+    private final long mappedForceInterval;
+    private final String rollingFileNamePattern;
+    private final FileSize rollingMaxFileSize;
+    private final int rollingMaxHistory;
+    private final FileSize rollingTotalSizeCap;
+    private final boolean garbageFree;
+    private final boolean jmx;
+    private final boolean console;
+    private final Level consoleThreshold;
+    private final String errorFile;
+    private final Level errorFileThreshold;
+    private final int shards;
+    private final ShardedAsyncAppender.Output shardOutput;
+    private final boolean virtualWorker;
+    private final boolean staging;
+    private final FileSize stagingBufferSize;
+    private final long stagingLinger;
+
+    /**
+     * Parses <code>props</code>.
+     *
+     * @param source where the properties were read from, null if they were
+     *               not read from a file
+     * @throws IllegalArgumentException if a value is invalid
+     */
+    public Configuration(Properties props, URL source) {
+        this.source = source;
+
+        Map<String, Level> levels = new HashMap<>();
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith(LEVEL_PREFIX)) {
+                levels.put(key.substring(LEVEL_PREFIX.length()), Level.valueOf(props.getProperty(key).trim()));
+            }
+        }
+        this.loggerLevels = Collections.unmodifiableMap(levels);
+
+        this.outputFile = props.getProperty("output-file");
+        this.level = Level.valueOf(props.getProperty("level", "INFO"));
+        this.reloadOnChange = Boolean.parseBoolean(props.getProperty("reload-on-change", "false"));
+        this.queueType = QueueType.valueOf(props.getProperty("queue-type", "BLOCKING"));
+        this.queueSize = Integer.parseInt(props.getProperty("queue-size", String.valueOf(AsyncAppenderBase.DEFAULT_QUEUE_SIZE)));
+        this.neverBlock = Boolean.parseBoolean(props.getProperty("never-block", "false"));
+        this.discardingThreshold = Integer.parseInt(props.getProperty("discarding-threshold",
+                String.valueOf(AsyncAppenderBase.UNDEFINED)));
+        this.discardReportInterval = Long.parseLong(props.getProperty("discard-report-interval",
+                String.valueOf(AsyncAppenderBase.DEFAULT_DISCARD_REPORT_INTERVAL)));
+        this.maxBatchSize = Integer.parseInt(props.getProperty("max-batch-size", "0"));
+        this.maxBatchDelay = Long.parseLong(props.getProperty("max-batch-delay", "0"));
+        this.targetLatency = Long.parseLong(props.getProperty("target-latency", "0"));
+        this.maxFlushTime = Integer.parseInt(props.getProperty("max-flush-time",
+                String.valueOf(AsyncAppenderBase.DEFAULT_MAX_FLUSH_TIME)));
+        this.forceOnStop = Boolean.parseBoolean(props.getProperty("force-on-stop", "false"));
+        this.waitStrategy = props.getProperty("wait-strategy", "BLOCKING");
+        this.timestampFormat = props.getProperty("timestamp-format", TimestampFormatter.DEFAULT);
+        this.pattern = props.getProperty("pattern", PatternLayout.DEFAULT_PATTERN);
+        this.preciseTimestamps = new PatternLayout(pattern, timestampFormat).isPrecise();
+        this.format = Format.valueOf(props.getProperty("format", "TEXT"));
+        this.flushPolicy = FlushPolicy.valueOf(props.getProperty("flush-policy", "BATCH"));
+        this.syncPolicy = SyncPolicy.valueOf(props.getProperty("sync-policy", "NONE"));
+        this.syncOnError = Boolean.parseBoolean(props.getProperty("sync-on-error", "false"));
+        this.bufferSize = FileSize.valueOf(props.getProperty("buffer-size",
+                String.valueOf(FileAppender.DEFAULT_BUFFER_SIZE)));
+        this.fileChannel = Boolean.parseBoolean(props.getProperty("file-channel", "false"));
+        this.prudent = Boolean.parseBoolean(props.getProperty("prudent", "false"));
+        this.checkSingleWriter = Boolean.parseBoolean(props.getProperty("check-single-writer", "false"));
+        this.prudentMaxLockHold = Long.parseLong(props.getProperty("prudent-max-lock-hold",
+                String.valueOf(FileAppender.DEFAULT_MAX_LOCK_HOLD_MILLIS)));
+        this.mappedFile = Boolean.parseBoolean(props.getProperty("mapped-file", "false"));
+        this.mappedRegionSize = FileSize.valueOf(props.getProperty("mapped-region-size", "32mb"));
+        this.mappedForceInterval = Long.parseLong(props.getProperty("mapped-force-interval", "0"));
+        this.rollingFileNamePattern = props.getProperty("rolling-file-name-pattern");
+        this.rollingMaxFileSize = optionalFileSize(props.getProperty("rolling-max-file-size"));
+        this.rollingMaxHistory = Integer.parseInt(props.getProperty("rolling-max-history", "0"));
+        this.rollingTotalSizeCap = optionalFileSize(props.getProperty("rolling-total-size-cap"));
+        this.garbageFree = Boolean.parseBoolean(props.getProperty("garbage-free", "false"));
+        this.jmx = Boolean.parseBoolean(props.getProperty("jmx", "true"));
+        this.console = Boolean.parseBoolean(props.getProperty("console", "false"));
+        this.consoleThreshold = Level.valueOf(props.getProperty("console-threshold", "TRACE"));
+        this.errorFile = props.getProperty("error-file");
+        this.errorFileThreshold = Level.valueOf(props.getProperty("error-file-threshold", "ERROR"));
+        this.shards = Integer.parseInt(props.getProperty("shards", "1"));
+        this.shardOutput = ShardedAsyncAppender.Output.valueOf(props.getProperty("shard-output", "MERGED"));
+        this.virtualWorker = Boolean.parseBoolean(props.getProperty("virtual-worker", "false"));
+        this.staging = Boolean.parseBoolean(props.getProperty("staging", "false"));
+        // the default is read later: loading the appender classes here would
+        // initialize them in the middle of LogConfig, which they read from
+        this.stagingBufferSize = optionalFileSize(props.getProperty("staging-buffer-size"));
+        this.stagingLinger = Long.parseLong(props.getProperty("staging-linger",
+                String.valueOf(StagingAsyncAppender.DEFAULT_LINGER_MILLIS)));
+    }
+
+    /**
+     * Reads <code>log.properties</code> from the classpath.
+     */
+    public static Configuration load() throws IOException {
+        URL url = Configuration.class.getClassLoader().getResource(RESOURCE_NAME);
+        if (url == null) {
+            throw new IOException(RESOURCE_NAME + " not found on the classpath");
+        }
+        return load(url);
+    }
+
+    public static Configuration load(URL url) throws IOException {
+        Properties props = new Properties();
+        try (InputStream is = url.openStream()) {
+            props.load(is);
+        }
+        return new Configuration(props, url);
+    }
+
+    private static FileSize optionalFileSize(String value) {
+        return value == null ? null : FileSize.valueOf(value);
+    }
+
+    /**
+     * Returns true if both configurations build the same appender pipeline.
+     * Only the parsed settings the pipeline is built from are compared: the
+     * levels, <code>reload-on-change</code> and
+     * <code>check-single-writer</code> are applied in place, and a value
+     * spelled differently, or left to its default, changes nothing.
+     */
+    public boolean samePipeline(Configuration other) {
+        return pipelineSettings().equals(other.pipelineSettings());
+    }
+
+    private List<Object> pipelineSettings() {
+        return Arrays.asList(outputFile, queueType, queueSize, neverBlock, discardingThreshold,
+                discardReportInterval, maxBatchSize, maxBatchDelay, targetLatency, maxFlushTime, forceOnStop,
+                waitStrategy, timestampFormat, pattern, format, flushPolicy.toString(), syncPolicy.toString(),
+                syncOnError, size(bufferSize), fileChannel, prudent, prudentMaxLockHold, mappedFile,
+                size(mappedRegionSize), mappedForceInterval, rollingFileNamePattern, size(rollingMaxFileSize),
+                rollingMaxHistory, size(rollingTotalSizeCap), garbageFree, jmx, console, consoleThreshold, errorFile,
+                errorFileThreshold, shards, shardOutput, virtualWorker, staging, size(getStagingBufferSize()),
+                stagingLinger);
+    }
+
+    private static Long size(FileSize fileSize) {
+        return fileSize == null ? null : fileSize.getSize();
+    }
+
+    /**
+     * The file the configuration was read from, or null if it was not read
+     * from a file of the default file system (e.g. from inside a jar).
+     */
+    public Path getSourcePath() {
+        if (source == null || !"file".equals(source.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(source.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public URL getSource() {
+        return source;
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * The levels of the <code>level.&lt;logger name&gt;</code> properties.
+     */
+    public Map<String, Level> getLoggerLevels() {
+        return loggerLevels;
+    }
+
+    public boolean isReloadOnChange() {
+        return reloadOnChange;
+    }
+
+    public QueueType getQueueType() {
+        return queueType;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public boolean isNeverBlock() {
+        return neverBlock;
+    }
+
+    public int getDiscardingThreshold() {
+        return discardingThreshold;
+    }
+
+    public long getDiscardReportInterval() {
+        return discardReportInterval;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxBatchDelay() {
+        return maxBatchDelay;
+    }
+
+    public long getTargetLatency() {
+        return targetLatency;
+    }
+
+    public int getMaxFlushTime() {
+        return maxFlushTime;
+    }
+
+    public boolean isForceOnStop() {
+        return forceOnStop;
+    }
+
+    public String getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public String getTimestampFormat() {
+        return timestampFormat;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Whether events must capture a nano precision timestamp for the
+     * configured pattern, or can settle for <code>System.currentTimeMillis()</code>.
+     */
+    public boolean isPreciseTimestamps() {
+        return preciseTimestamps;
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public boolean isSyncOnError() {
+        return syncOnError;
+    }
+
+    public FileSize getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isFileChannel() {
+        return fileChannel;
+    }
+
+    /**
+     * Whether several processes may write to the same files, see
+     * {@link FileAppender#setPrudent(boolean)}.
+     */
+    public boolean isPrudent() {
+        return prudent;
+    }
+
+    public long getPrudentMaxLockHold() {
+        return prudentMaxLockHold;
+    }
+
+    /**
+     * Whether the appenders fed by an async worker check that no other thread
+     * writes to them, a debugging aid.
+     */
+    public boolean isCheckSingleWriter() {
+        return checkSingleWriter;
+    }
+
+    public boolean isMappedFile() {
+        return mappedFile;
+    }
+
+    public FileSize getMappedRegionSize() {
+        return mappedRegionSize;
+    }
+
+    public long getMappedForceInterval() {
+        return mappedForceInterval;
+    }
+
+    public String getRollingFileNamePattern() {
+        return rollingFileNamePattern;
+    }
+
+    public FileSize getRollingMaxFileSize() {
+        return rollingMaxFileSize;
+    }
+
+    public int getRollingMaxHistory() {
+        return rollingMaxHistory;
+    }
+
+    public FileSize getRollingTotalSizeCap() {
+        return rollingTotalSizeCap;
+    }
+
+    public boolean isGarbageFree() {
+        return garbageFree;
+    }
+
+    /**
+     * Whether the metrics of each pipeline are registered as an MBean.
+     */
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    /**
+     * Whether the pipeline also writes to the console.
+     */
+    public boolean isConsole() {
+        return console;
+    }
+
+    public Level getConsoleThreshold() {
+        return consoleThreshold;
+    }
+
+    /**
+     * The file the pipeline also writes its events of level
+     * {@link #getErrorFileThreshold()} and above to, or null.
+     */
+    public String getErrorFile() {
+        return errorFile;
+    }
+
+    public Level getErrorFileThreshold() {
+        return errorFileThreshold;
+    }
+
+    /**
+     * The number of queues and workers of the pipeline, see
+     * {@link ShardedAsyncAppender}. 1 for a plain {@link AsyncAppenderBase}.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    public ShardedAsyncAppender.Output getShardOutput() {
+        return shardOutput;
+    }
+
+    /**
+     * Whether the workers run as virtual threads, when the JVM has them.
+     */
+    public boolean isVirtualWorker() {
+        return virtualWorker;
+    }
+
+    /**
+     * Whether the calling threads encode into buffers of their own, see
+     * {@link StagingAsyncAppender}.
+     */
+    public boolean isStaging() {
+        return staging;
+    }
+
+    public FileSize getStagingBufferSize() {
+        return stagingBufferSize != null ? stagingBufferSize : StagingAsyncAppender.DEFAULT_STAGING_BUFFER_SIZE;
+    }
+
+    /**
+     * Milliseconds an event can wait in the buffer of its thread.
+     */
+    public long getStagingLinger() {
+        return stagingLinger;
+    }
+}
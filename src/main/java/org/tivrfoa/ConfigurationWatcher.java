@@ -0,0 +1,86 @@
+package org.tivrfoa;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads a {@link LoggerContext} when its configuration file changes.
+ * <p>
+ * A {@link WatchService} reports changes by directory, so the parent
+ * directory is watched and the events are filtered on the file name. Editors
+ * often save a file in several steps, so the reload waits for
+ * {@link #QUIET_PERIOD_MILLIS} without new events first.
+ */
+class ConfigurationWatcher extends Thread {
+
+    static final long QUIET_PERIOD_MILLIS = 200;
+
+    private final LoggerContext context;
+    private final Path file;
+    private final WatchService watchService;
+
+    ConfigurationWatcher(LoggerContext context, Path file) throws IOException {
+        super("LoggerContext-ConfigurationWatcher");
+        setDaemon(true);
+        this.context = context;
+        this.file = file.toAbsolutePath();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean changed = pollChanged(key);
+                // let the writer finish before reading the file
+                while (true) {
+                    key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed |= pollChanged(key);
+                }
+                if (changed) {
+                    context.reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    private boolean pollChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    void shutdown() {
+        interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.tivrfoa;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Writes to <code>System.out</code> or <code>System.err</code>.
+ * <p>
+ * The console stream is not closed when the appender stops.
+ */
+public class ConsoleAppender extends OutputStreamAppender {
+
+    public static final String SYSTEM_OUT = "System.out";
+    public static final String SYSTEM_ERR = "System.err";
+
+    private String target = SYSTEM_OUT;
+
+    @Override
+    public void start() {
+        PrintStream stream = SYSTEM_ERR.equals(target) ? System.err : System.out;
+        setOutputStream(new NonClosingOutputStream(stream));
+        super.start();
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Sets the target, either {@link #SYSTEM_OUT} or {@link #SYSTEM_ERR}.
+     */
+    public void setTarget(String target) {
+        if (!SYSTEM_OUT.equals(target) && !SYSTEM_ERR.equals(target)) {
+            throw new IllegalArgumentException("Invalid console target [" + target + "], expected " + SYSTEM_OUT
+                    + " or " + SYSTEM_ERR);
+        }
+        this.target = target;
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.tivrfoa;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A growable byte buffer that {@link Encoder}s write into.
+ * <p>
+ * Text is encoded as UTF-8 by hand: runs of ASCII characters, by far the most
+ * common case in log lines, are copied with one store per character and no
+ * charset lookup or intermediate array.
+ * <p>
+ * The underlying {@link ByteBuffer} is kept in write mode: its position is the
+ * number of bytes written so far.
+ */
+public final class EncodeBuffer {
+
+    private ByteBuffer buffer;
+    private final boolean direct;
+
+    public EncodeBuffer(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    public EncodeBuffer(int initialCapacity, boolean direct) {
+        this.direct = direct;
+        this.buffer = allocate(initialCapacity);
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * The underlying buffer. It may be replaced by a bigger one on any write,
+     * so it should not be kept across writes.
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return buffer.position();
+    }
+
+    public void clear() {
+        buffer.clear();
+    }
+
+    public void ensureRemaining(int remaining) {
+        if (buffer.remaining() < remaining) {
+            int capacity = Math.max(buffer.position() + remaining, buffer.capacity() * 2);
+            ByteBuffer bigger = allocate(capacity);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+
+    public void put(byte b) {
+        ensureRemaining(1);
+        buffer.put(b);
+    }
+
+    public void put(byte[] src) {
+        put(src, 0, src.length);
+    }
+
+    public void put(byte[] src, int offset, int length) {
+        ensureRemaining(length);
+        buffer.put(src, offset, length);
+    }
+
+    public void put(ByteBuffer src) {
+        ensureRemaining(src.remaining());
+        buffer.put(src);
+    }
+
+    /**
+     * Appends <code>length</code> bytes of <code>src</code> starting at
+     * <code>offset</code>, leaving the position of <code>src</code>
+     * untouched.
+     */
+    public void put(ByteBuffer src, int offset, int length) {
+        ensureRemaining(length);
+        buffer.put(buffer.position(), src, offset, length);
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * Appends the decimal digits of <code>value</code>.
+     */
+    public void putLong(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                putUtf8(Long.toString(value));
+                return;
+            }
+            put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        ensureRemaining(digits);
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Appends <code>text</code> encoded as UTF-8. Unpaired surrogates are
+     * written as '?'.
+     */
+    public void putUtf8(CharSequence text) {
+        if (text == null) {
+            text = "null";
+        }
+        int length = text.length();
+        ensureRemaining(length * 3);
+
+        int i = 0;
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int start = buffer.arrayOffset() + buffer.position();
+            int pos = start;
+            for (; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                array[pos++] = (byte) c;
+            }
+            buffer.position(buffer.position() + pos - start);
+        }
+
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.tivrfoa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch encoded once on behalf of all the {@link OutputStreamAppender}s
+ * that share an {@link Encoder}.
+ * <p>
+ * The encoding is lazy: {@link AppenderAttachableImpl} only resets it with
+ * the batch, and the first appender that needs the bytes encodes it. An
+ * appender that got the whole batch writes the chunks as they are; one whose
+ * filters dropped some events copies the bytes of the others, which is much
+ * cheaper than encoding them again.
+ * <p>
+ * Only used by the async worker thread.
+ */
+final class EncodedBatch {
+
+    private final Encoder encoder;
+    private final boolean direct;
+    private final List<EncodeBuffer> chunks = new ArrayList<>();
+    private int chunkCount;
+
+    private List<LogEvent> events;
+    private boolean encoded;
+    /**
+     * For each event, the chunk holding it and the offset its bytes end at.
+     */
+    private int[] eventChunk = new int[64];
+    private int[] eventEnd = new int[64];
+
+    EncodedBatch(Encoder encoder, boolean direct) {
+        this.encoder = encoder;
+        this.direct = direct;
+    }
+
+    Encoder getEncoder() {
+        return encoder;
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    void reset(List<LogEvent> events) {
+        this.events = events;
+        this.encoded = false;
+    }
+
+    /**
+     * Returns true if this is the encoding of <code>batch</code> itself, not
+     * of a batch it was filtered from.
+     */
+    boolean isEncodingOf(List<LogEvent> batch) {
+        return events == batch;
+    }
+
+    private void ensureEncoded() {
+        if (encoded) {
+            return;
+        }
+        int size = events.size();
+        if (eventChunk.length < size) {
+            eventChunk = new int[Math.max(size, eventChunk.length * 2)];
+            eventEnd = new int[eventChunk.length];
+        }
+        chunkCount = 1;
+        EncodeBuffer chunk = chunk(0);
+        for (int i = 0; i < size; i++) {
+            if (chunk.length() >= OutputStreamAppender.CHUNK_SIZE) {
+                chunk = chunk(chunkCount++);
+            }
+            encoder.encode(events.get(i), chunk);
+            eventChunk[i] = chunkCount - 1;
+            eventEnd[i] = chunk.length();
+        }
+        encoded = true;
+    }
+
+    private EncodeBuffer chunk(int index) {
+        if (index == chunks.size()) {
+            chunks.add(new EncodeBuffer(OutputStreamAppender.CHUNK_SIZE, direct));
+        }
+        EncodeBuffer chunk = chunks.get(index);
+        chunk.clear();
+        return chunk;
+    }
+
+    List<EncodeBuffer> chunks() {
+        ensureEncoded();
+        return chunks;
+    }
+
+    int chunkCount() {
+        ensureEncoded();
+        return chunkCount;
+    }
+
+    /**
+     * Returns the index of <code>event</code> in the batch, looking from
+     * <code>from</code> on, or -1.
+     */
+    int indexOf(LogEvent event, int from) {
+        for (int i = from; i < events.size(); i++) {
+            if (events.get(i) == event) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Appends the encoded bytes of the event at <code>index</code> to
+     * <code>target</code>.
+     */
+    void copyEvent(int index, EncodeBuffer target) {
+        ensureEncoded();
+        int chunk = eventChunk[index];
+        int start = index == 0 || eventChunk[index - 1] != chunk ? 0 : eventEnd[index - 1];
+        target.put(chunks.get(chunk).buffer(), start, eventEnd[index] - start);
+    }
+}
@@ -0,0 +1,23 @@
+package org.tivrfoa;
+
+/**
+ * Turns events into bytes for an {@link OutputStreamAppender}.
+ * <p>
+ * Encoders are called by one thread at a time, the appender takes care of
+ * that, so they are free to keep reusable scratch state.
+ */
+public interface Encoder {
+
+    /**
+     * Appends the encoded event to <code>out</code>.
+     */
+    void encode(LogEvent event, EncodeBuffer out);
+
+    /**
+     * Called when the appender starts writing to a new output, such as a
+     * newly opened or rolled over file. Encoders carrying state from one
+     * event to the next, like {@link BinaryEncoder}, start over.
+     */
+    default void reset() {
+    }
+}
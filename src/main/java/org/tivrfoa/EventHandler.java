@@ -0,0 +1,14 @@
+package org.tivrfoa;
+
+/**
+ * Receives the events drained from an {@link AsyncQueue}.
+ */
+public interface EventHandler<E> {
+
+    /**
+     * @param event      the drained event
+     * @param endOfBatch true for the last event of the current drain, so the
+     *                   handler can flush what it has accumulated
+     */
+    void onEvent(E event, boolean endOfBatch);
+}
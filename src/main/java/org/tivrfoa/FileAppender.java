@@ -2,8 +2,13 @@ package org.tivrfoa;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FileAppender extends OutputStreamAppender {
 
@@ -17,8 +22,47 @@ public class FileAppender extends OutputStreamAppender {
 
     private boolean prudent = false;
 
+    public static final long DEFAULT_MAX_LOCK_HOLD_MILLIS = 10;
+    private long maxLockHoldMillis = DEFAULT_MAX_LOCK_HOLD_MILLIS;
+
+    static final int MAX_LOCKED_BATCH_LIMIT = 1 << 16;
+    /**
+     * The number of events written per lock of the file in prudent mode,
+     * adapted to {@link #maxLockHoldMillis}. Only touched by the worker.
+     */
+    private int lockedBatchLimit = 1024;
+
     private FileSize bufferSize = new FileSize(DEFAULT_BUFFER_SIZE);
 
+    /**
+     * When true, events are encoded into pooled direct buffers and written
+     * straight to the file channel, without a BufferedOutputStream.
+     */
+    private boolean fileChannel = false;
+
+    /**
+     * Views handed to the gathering write, reused from one batch to the next.
+     */
+    private ByteBuffer[] gatherViews = new ByteBuffer[0];
+
+    private SyncPolicy syncPolicy = SyncPolicy.none();
+    private boolean syncOnError = false;
+    /**
+     * Events written since the last sync, -1 when some of them were written
+     * already encoded. Only touched while holding the write lock.
+     */
+    private long unsyncedEvents = 0;
+    private long lastSyncNanos = System.nanoTime();
+    private ScheduledFuture<?> syncTask;
+    private final LongAdder syncCount = new LongAdder();
+
+    /**
+     * Creates an appender to be configured through its setters and then
+     * started.
+     */
+    public FileAppender() {
+    }
+
     public FileAppender(String fileName) {
         setFile(fileName);
         start();
@@ -102,11 +146,31 @@ public class FileAppender extends OutputStreamAppender {
         }
         if (errors == 0) {
             super.start();
+            if (syncPolicy.getMode() == SyncPolicy.Mode.INTERVAL) {
+                long period = syncPolicy.getThreshold();
+                syncTask = FlushScheduler.INSTANCE.scheduleWithFixedDelay(this::syncIfDue, period, period,
+                        TimeUnit.MILLISECONDS);
+            }
         }
     }
 
+    /**
+     * Also takes the lock while the sync task runs beside the worker.
+     */
+    @Override
+    protected boolean isLockFree() {
+        return super.isLockFree() && syncTask == null;
+    }
+
     @Override
     public void stop() {
+        if (syncTask != null) {
+            syncTask.cancel(false);
+            syncTask = null;
+        }
+        if (isStarted() && syncPolicy.getMode() != SyncPolicy.Mode.NONE && unsyncedEvents != 0) {
+            sync();
+        }
         super.stop();
 
         /*Map<String, String> map = ContextUtil.getFilenameCollisionMap(context);
@@ -116,6 +180,113 @@ public class FileAppender extends OutputStreamAppender {
         map.remove(getName());*/
     }
 
+    /**
+     * Flushes, then forces the content of the file to the storage device, so
+     * that what was written so far survives a crash of the machine. Like the
+     * writes, once an {@link AsyncAppenderBase} owns this appender only its
+     * worker may call it.
+     *
+     * @return whether the file was forced
+     */
+    public boolean sync() {
+        // an interrupted thread would close the channel (see LOGBACK-875)
+        boolean interrupted = Thread.interrupted();
+        boolean locked = lockWrite();
+        try {
+            flush();
+            forceContent();
+            unsyncedEvents = 0;
+            lastSyncNanos = System.nanoTime();
+            syncCount.increment();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to sync the file of appender [" + name + "]: " + e);
+            return false;
+        } finally {
+            unlockWrite(locked);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Syncs unless the sync policy already forced everything written, as
+     * {@link SyncPolicy#perBatch()} does after each write. Used by the worker of
+     * an {@link AsyncAppenderBase} for its {@link AsyncAppenderBase#sync()}
+     * callers.
+     *
+     * @return whether the file is forced
+     */
+    boolean syncUnsynced() {
+        boolean locked = lockWrite();
+        try {
+            // the unsynced events are only counted when a policy may sync
+            boolean counted = syncPolicy.getMode() != SyncPolicy.Mode.NONE || syncOnError;
+            if (counted && unsyncedEvents == 0) {
+                return true;
+            }
+            return sync();
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Forces what was flushed to the storage device, see
+     * {@link FileChannel#force(boolean)}. Called while holding the lock.
+     */
+    protected void forceContent() throws IOException {
+        ResilientFileOutputStream resilientFOS = (ResilientFileOutputStream) getOutputStream();
+        FileChannel fileChannel = resilientFOS == null ? null : resilientFOS.getChannel();
+        if (fileChannel == null) {
+            throw new IOException("the file is not open");
+        }
+        if (resilientFOS.isPresumedInError()) {
+            throw new IOException("the file is in error, writes were skipped");
+        }
+        fileChannel.force(false);
+    }
+
+    /**
+     * Syncs according to the {@link SyncPolicy} once <code>events</code> more
+     * events were written, -1 if they were written already encoded.
+     */
+    private void syncAfterWrite(long events, boolean error) {
+        if (syncPolicy.getMode() == SyncPolicy.Mode.NONE && !syncOnError) {
+            return;
+        }
+        boolean locked = lockWrite();
+        try {
+            unsyncedEvents = events < 0 || unsyncedEvents < 0 ? -1 : unsyncedEvents + events;
+            if ((error && syncOnError) || syncPolicy.shouldSync(unsyncedEvents, lastSyncNanos)) {
+                sync();
+            }
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    private void syncIfDue() {
+        lock.lock();
+        try {
+            if (isStarted() && syncPolicy.shouldSync(unsyncedEvents, lastSyncNanos)) {
+                sync();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean containsError(List<LogEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            if (events.get(i).getLevel() == Level.ERROR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected boolean checkForFileCollisionInPreviousFileAppenders() {
         /*boolean collisionsDetected = false;
         if (fileName == null) {
@@ -168,7 +339,8 @@ public class FileAppender extends OutputStreamAppender {
                 System.err.println("Failed to create parent directories for [" + file.getAbsolutePath() + "]");
             }
 
-            ResilientFileOutputStream resilientFos = new ResilientFileOutputStream(file, append, bufferSize.getSize());
+            ResilientFileOutputStream resilientFos = new ResilientFileOutputStream(file, append, bufferSize.getSize(),
+                    !fileChannel);
             setOutputStream(resilientFos);
         } finally {
             lock.unlock();
@@ -186,7 +358,8 @@ public class FileAppender extends OutputStreamAppender {
 
     /**
      * When prudent is set to true, file appenders from multiple JVMs can safely
-     * write to the same file.
+     * write to the same file. Each batch is written under one lock of the
+     * file, see {@link #setMaxLockHoldMillis(long)}.
      * 
      * @param prudent
      */
@@ -194,6 +367,49 @@ public class FileAppender extends OutputStreamAppender {
         this.prudent = prudent;
     }
 
+    /**
+     * @see #setFileChannel(boolean)
+     */
+    public boolean isFileChannel() {
+        return fileChannel;
+    }
+
+    /**
+     * Write through the {@link FileChannel} from direct buffers, with one
+     * gathering write per batch, instead of through a BufferedOutputStream.
+     * Must be set before the file is opened.
+     */
+    public void setFileChannel(boolean fileChannel) {
+        this.fileChannel = fileChannel;
+    }
+
+    @Override
+    protected boolean useDirectBuffers() {
+        return fileChannel;
+    }
+
+    @Override
+    protected void writeChunks(List<EncodeBuffer> chunks, int count) throws IOException {
+        if (!fileChannel) {
+            super.writeChunks(chunks, count);
+            return;
+        }
+        if (gatherViews.length < count) {
+            gatherViews = new ByteBuffer[Math.max(count, MAX_CHUNKS)];
+        }
+        // views, the chunks may be shared with the other appenders of the batch
+        for (int i = 0; i < count; i++) {
+            gatherViews[i] = chunks.get(i).buffer().duplicate().flip();
+        }
+        try {
+            ((ResilientFileOutputStream) getOutputStream()).write(gatherViews, 0, count);
+        } finally {
+            for (int i = 0; i < count; i++) {
+                gatherViews[i] = null;
+            }
+        }
+    }
+
     public void setAppend(boolean append) {
         this.append = append;
     }
@@ -203,25 +419,36 @@ public class FileAppender extends OutputStreamAppender {
         this.bufferSize = bufferSize;
     }
 
-    private void safeWrite(String msg) throws IOException {
+    /**
+     * Runs <code>write</code> in prudent mode: locks the file, moves to its
+     * end, writes and flushes before releasing the lock, so that what other
+     * processes write lands before or after, never inside.
+     *
+     * @return how long the file was locked, in nanoseconds
+     */
+    private long lockedWrite(LockedWrite write) throws IOException {
         ResilientFileOutputStream resilientFOS = (ResilientFileOutputStream) getOutputStream();
-        FileChannel fileChannel = resilientFOS.getChannel();
+        FileChannel fileChannel = resilientFOS == null ? null : resilientFOS.getChannel();
         if (fileChannel == null) {
-            return;
+            return 0;
         }
 
         // Clear any current interrupt (see LOGBACK-875)
         boolean interrupted = Thread.interrupted();
 
         FileLock fileLock = null;
+        long lockedAt = 0;
+        boolean locked = lockWrite();
         try {
             fileLock = fileChannel.lock();
+            lockedAt = System.nanoTime();
             long position = fileChannel.position();
             long size = fileChannel.size();
             if (size != position) {
                 fileChannel.position(size);
             }
-            super.writeOut(msg);
+            write.write();
+            flush();
         } catch (IOException e) {
             // Mainly to catch FileLockInterruptionExceptions (see LOGBACK-875)
             resilientFOS.postIOFailure(e);
@@ -229,20 +456,127 @@ public class FileAppender extends OutputStreamAppender {
             if (fileLock != null && fileLock.isValid()) {
                 fileLock.release();
             }
+            unlockWrite(locked);
 
             // Re-interrupt if we started in an interrupted state (see LOGBACK-875)
             if (interrupted) {
                 Thread.currentThread().interrupt();
             }
         }
+        return lockedAt == 0 ? 0 : System.nanoTime() - lockedAt;
+    }
+
+    @FunctionalInterface
+    private interface LockedWrite {
+        void write() throws IOException;
+    }
+
+    /**
+     * Writes a batch in prudent mode with one lock of the file per part of
+     * up to {@link #lockedBatchLimit} events, instead of one per event.
+     */
+    private void safeWrite(List<LogEvent> events) throws IOException {
+        int size = events.size();
+        int from = 0;
+        while (from < size) {
+            int to = (int) Math.min(size, (long) from + lockedBatchLimit);
+            List<LogEvent> part = from == 0 && to == size ? events : events.subList(from, to);
+            long held = lockedWrite(() -> super.writeOut(part));
+            adaptLockedBatchLimit(held, to - from == lockedBatchLimit);
+            from = to;
+            if (from < size) {
+                // let a process waiting for the lock take it
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Halves the events written per lock when the lock was held longer than
+     * {@link #getMaxLockHoldMillis()}, and doubles them back when a full part
+     * took less than half of it.
+     */
+    private void adaptLockedBatchLimit(long heldNanos, boolean full) {
+        long maxHoldNanos = TimeUnit.MILLISECONDS.toNanos(maxLockHoldMillis);
+        if (heldNanos > maxHoldNanos) {
+            lockedBatchLimit = Math.max(1, lockedBatchLimit / 2);
+        } else if (full && heldNanos < maxHoldNanos / 2) {
+            lockedBatchLimit = Math.min(MAX_LOCKED_BATCH_LIMIT, lockedBatchLimit * 2);
+        }
+    }
+
+    @Override
+    protected void writeOut(LogEvent event) throws IOException {
+        if (prudent) {
+            lockedWrite(() -> super.writeOut(event));
+        } else {
+            super.writeOut(event);
+        }
+        syncAfterWrite(1, event.getLevel() == Level.ERROR);
     }
 
     @Override
-    protected void writeOut(String msg) throws IOException {
+    protected void writeOut(List<LogEvent> events) throws IOException {
         if (prudent) {
-            safeWrite(msg);
+            safeWrite(events);
         } else {
-            super.writeOut(msg);
+            super.writeOut(events);
         }
+        syncAfterWrite(events.size(), syncOnError && containsError(events));
+    }
+
+    @Override
+    protected void writeEncodedBatch(List<EncodeBuffer> source, int count) throws IOException {
+        if (prudent) {
+            lockedWrite(() -> super.writeEncodedBatch(source, count));
+        } else {
+            super.writeEncodedBatch(source, count);
+        }
+        // the levels are not known here, so sync-on-error does not apply
+        syncAfterWrite(-1, false);
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Sets when the file is forced to the storage device, see
+     * {@link SyncPolicy}. Must be set before the appender is started.
+     */
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    public boolean isSyncOnError() {
+        return syncOnError;
+    }
+
+    /**
+     * When true, a batch holding an ERROR is synced right away whatever the
+     * {@link SyncPolicy}.
+     */
+    public void setSyncOnError(boolean syncOnError) {
+        this.syncOnError = syncOnError;
+    }
+
+    /**
+     * Times the file was forced to the storage device.
+     */
+    public long getSyncCount() {
+        return syncCount.sum();
+    }
+
+    public long getMaxLockHoldMillis() {
+        return maxLockHoldMillis;
+    }
+
+    /**
+     * Sets about how long the file may stay locked for one write in prudent
+     * mode, so that the other processes writing to it are not starved. Big
+     * batches are then written in several parts.
+     */
+    public void setMaxLockHoldMillis(long maxLockHoldMillis) {
+        this.maxLockHoldMillis = maxLockHoldMillis;
     }
 }
@@ -0,0 +1,231 @@
+package org.tivrfoa;
+
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The name of the archives of a {@link RollingFileAppender}, e.g.
+ * <code>logs/app.%d{yyyy-MM-dd}.%i.log.gz</code>.
+ * <p>
+ * <code>%d{pattern}</code> is replaced by the start of the period the archive
+ * covers, formatted with a {@link DateTimeFormatter} pattern
+ * (<code>yyyy-MM-dd</code> when omitted). The smallest field of that pattern
+ * also gives the rolling period: minutes, hours, days or months.
+ * <code>%i</code> is replaced by an index that tells apart the archives of a
+ * single period when rolling on size.
+ */
+class FileNamePattern {
+
+    static final String DEFAULT_DATE_PATTERN = "yyyy-MM-dd";
+
+    private final String pattern;
+    private final String prefix;
+    private final String datePattern;
+    private final DateTimeFormatter dateFormatter;
+    private final DateTimeFormatter dateParser;
+    private final ChronoUnit periodUnit;
+    private final boolean hasIndex;
+    private final boolean compressed;
+    /**
+     * Pieces of the pattern: literal text, and null for the place of the date
+     * and of the index.
+     */
+    private final String[] literals;
+    private final char[] tokens;
+    private final Pattern archiveRegex;
+
+    FileNamePattern(String pattern) {
+        this.pattern = pattern.trim();
+        this.compressed = this.pattern.endsWith(".gz");
+
+        List<String> literalList = new ArrayList<>();
+        StringBuilder tokenList = new StringBuilder();
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        String foundDatePattern = null;
+        boolean foundIndex = false;
+
+        int i = 0;
+        while (i < this.pattern.length()) {
+            char c = this.pattern.charAt(i);
+            if (c == '%' && i + 1 < this.pattern.length()
+                    && (this.pattern.charAt(i + 1) == 'd' || this.pattern.charAt(i + 1) == 'i')) {
+                char token = this.pattern.charAt(i + 1);
+                i += 2;
+                literalList.add(literal.toString());
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+                if (token == 'd') {
+                    foundDatePattern = DEFAULT_DATE_PATTERN;
+                    if (i < this.pattern.length() && this.pattern.charAt(i) == '{') {
+                        int end = this.pattern.indexOf('}', i);
+                        if (end == -1) {
+                            throw new IllegalArgumentException("Unclosed %d option in [" + pattern + "]");
+                        }
+                        foundDatePattern = this.pattern.substring(i + 1, end);
+                        i = end + 1;
+                    }
+                    regex.append("(?<date>.+?)");
+                } else {
+                    foundIndex = true;
+                    regex.append("(?<index>\\d+)");
+                }
+                tokenList.append(token);
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        literalList.add(literal.toString());
+        regex.append(Pattern.quote(literal.toString()));
+        if (!compressed) {
+            regex.append("(\\.gz)?");
+        }
+
+        this.literals = literalList.toArray(new String[0]);
+        this.tokens = tokenList.toString().toCharArray();
+        this.prefix = literals[0];
+        this.datePattern = foundDatePattern;
+        this.hasIndex = foundIndex;
+        this.archiveRegex = Pattern.compile(regex.toString());
+        if (datePattern != null) {
+            this.dateFormatter = DateTimeFormatter.ofPattern(datePattern);
+            this.dateParser = new DateTimeFormatterBuilder().appendPattern(datePattern)
+                    .parseDefaulting(ChronoField.MONTH_OF_YEAR, 1)
+                    .parseDefaulting(ChronoField.DAY_OF_MONTH, 1)
+                    .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+                    .parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0)
+                    .toFormatter();
+            this.periodUnit = periodUnit(datePattern);
+        } else {
+            this.dateFormatter = null;
+            this.dateParser = null;
+            this.periodUnit = null;
+        }
+    }
+
+    /**
+     * The smallest unit shown by a date pattern, ignoring quoted text.
+     */
+    private static ChronoUnit periodUnit(String datePattern) {
+        ChronoUnit unit = null;
+        boolean quoted = false;
+        for (int i = 0; i < datePattern.length(); i++) {
+            char c = datePattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+                continue;
+            }
+            if (quoted) {
+                continue;
+            }
+            ChronoUnit letterUnit = switch (c) {
+                case 'm' -> ChronoUnit.MINUTES;
+                case 'H', 'h', 'k', 'K' -> ChronoUnit.HOURS;
+                case 'd', 'D', 'E', 'e' -> ChronoUnit.DAYS;
+                case 'M', 'L' -> ChronoUnit.MONTHS;
+                default -> null;
+            };
+            if (letterUnit != null && (unit == null || letterUnit.compareTo(unit) < 0)) {
+                unit = letterUnit;
+            }
+        }
+        if (unit == null) {
+            throw new IllegalArgumentException("Date pattern [" + datePattern + "] has no minute, hour, day or month");
+        }
+        return unit;
+    }
+
+    /**
+     * The start of the period <code>time</code> falls in.
+     */
+    ZonedDateTime periodStart(ZonedDateTime time) {
+        if (periodUnit == ChronoUnit.MONTHS) {
+            return time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+        }
+        return time.truncatedTo(periodUnit);
+    }
+
+    ZonedDateTime nextPeriodStart(ZonedDateTime periodStart) {
+        return periodStart.plus(1, periodUnit);
+    }
+
+    String convert(ZonedDateTime periodStart, int index) {
+        StringBuilder sb = new StringBuilder(literals[0]);
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i] == 'd') {
+                sb.append(dateFormatter.format(periodStart));
+            } else {
+                sb.append(index);
+            }
+            sb.append(literals[i + 1]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the matcher of an archive name, or null if the name does not
+     * belong to this pattern.
+     */
+    Matcher matchArchive(String path) {
+        Matcher matcher = archiveRegex.matcher(path);
+        return matcher.matches() ? matcher : null;
+    }
+
+    /**
+     * Parses the period of a matched archive name, or returns null if the
+     * date part does not parse.
+     */
+    LocalDateTime parsePeriod(Matcher matcher) {
+        if (dateParser == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.from(dateParser.parse(matcher.group("date")));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the index of a matched archive name, or returns 0 if the pattern
+     * has no index.
+     */
+    int parseIndex(Matcher matcher) {
+        return hasIndex ? Integer.parseInt(matcher.group("index")) : 0;
+    }
+
+    String getPrefix() {
+        return prefix;
+    }
+
+    boolean hasDate() {
+        return datePattern != null;
+    }
+
+    boolean hasIndex() {
+        return hasIndex;
+    }
+
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    ChronoUnit getPeriodUnit() {
+        return periodUnit;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
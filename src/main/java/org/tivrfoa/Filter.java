@@ -0,0 +1,12 @@
+package org.tivrfoa;
+
+/**
+ * Decides whether an appender writes an event. Filters are attached to an
+ * appender with {@link UnsynchronizedAppenderBase#addFilter(Filter)} and run
+ * on the thread calling the appender, the async worker for the appenders
+ * attached to an {@link AsyncAppenderBase}.
+ */
+public interface Filter {
+
+    FilterReply decide(LogEvent event);
+}
@@ -0,0 +1,11 @@
+package org.tivrfoa;
+
+/**
+ * The decision of a {@link Filter}: drop the event, let the next filter
+ * decide, or accept the event without asking the remaining filters.
+ */
+public enum FilterReply {
+    DENY,
+    NEUTRAL,
+    ACCEPT;
+}
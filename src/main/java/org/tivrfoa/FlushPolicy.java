@@ -0,0 +1,97 @@
+package org.tivrfoa;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when an {@link OutputStreamAppender} flushes the bytes written by
+ * batches of events.
+ * <p>
+ * Accepted values for the <code>flush-policy</code> property:
+ * <ul>
+ * <li><code>BATCH</code>: flush once at the end of every batch</li>
+ * <li><code>BYTES:&lt;size&gt;</code>: flush once at least that many bytes
+ * were written since the last flush, e.g. <code>BYTES:64kb</code></li>
+ * <li><code>INTERVAL:&lt;millis&gt;</code>: flush at most every that many
+ * milliseconds, e.g. <code>INTERVAL:200</code>. A background task flushes
+ * what is left once the interval expires, even if no more events come.</li>
+ * </ul>
+ * Single events appended through
+ * {@link UnsynchronizedAppenderBase#doAppend(LogEvent)} keep following
+ * {@link OutputStreamAppender#isImmediateFlush()}.
+ */
+public final class FlushPolicy {
+
+    public enum Mode {
+        BATCH, BYTES, INTERVAL
+    }
+
+    private final Mode mode;
+    private final long threshold;
+
+    private FlushPolicy(Mode mode, long threshold) {
+        this.mode = mode;
+        this.threshold = threshold;
+    }
+
+    public static FlushPolicy perBatch() {
+        return new FlushPolicy(Mode.BATCH, 0);
+    }
+
+    public static FlushPolicy everyBytes(long bytes) {
+        return new FlushPolicy(Mode.BYTES, bytes);
+    }
+
+    public static FlushPolicy everyMillis(long millis) {
+        return new FlushPolicy(Mode.INTERVAL, millis);
+    }
+
+    public static FlushPolicy valueOf(String value) {
+        String[] parts = value.trim().split(":", 2);
+        Mode mode = Mode.valueOf(parts[0].trim().toUpperCase());
+        return switch (mode) {
+            case BATCH -> perBatch();
+            case BYTES -> everyBytes(FileSize.valueOf(argument(parts, value)).getSize());
+            case INTERVAL -> everyMillis(Long.parseLong(argument(parts, value)));
+        };
+    }
+
+    private static String argument(String[] parts, String value) {
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Flush policy [" + value + "] is missing its threshold");
+        }
+        return parts[1].trim();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Bytes for {@link Mode#BYTES}, milliseconds for {@link Mode#INTERVAL}.
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Called after a batch was written.
+     *
+     * @param unflushedBytes  bytes written since the last flush
+     * @param lastFlushNanos  <code>System.nanoTime()</code> of the last flush
+     */
+    public boolean shouldFlush(long unflushedBytes, long lastFlushNanos) {
+        if (unflushedBytes == 0) {
+            return false;
+        }
+        return switch (mode) {
+            case BATCH -> true;
+            case BYTES -> unflushedBytes >= threshold;
+            case INTERVAL -> System.nanoTime() - lastFlushNanos >= TimeUnit.MILLISECONDS.toNanos(threshold);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.BATCH ? mode.name() : mode + ":" + threshold;
+    }
+}
@@ -0,0 +1,119 @@
+package org.tivrfoa;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear histogram of non-negative longs, in the style of
+ * HdrHistogram: values are counted in buckets that double in width every
+ * power of two, each split in {@link #SUB_BUCKETS} linear sub-buckets, so any
+ * value is known within 1/8 of its magnitude with a fixed, small footprint.
+ * <p>
+ * Values must be recorded by a single thread, which keeps recording down to
+ * a few plain stores; any thread can read it.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+    private volatile long totalCount;
+    private volatile long sum;
+    private volatile long max;
+
+    /**
+     * Records <code>value</code>, negative values counting as 0. Must only
+     * be called by one thread.
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int index = indexOf(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        totalCount = totalCount + 1;
+        sum = sum + value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds the values counted by <code>other</code>, to build one histogram
+     * out of several. Like {@link #record(long)}, only one thread may call it.
+     */
+    void add(Histogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.lazySet(i, counts.get(i) + count);
+            }
+        }
+        totalCount = totalCount + other.totalCount;
+        sum = sum + other.sum;
+        if (other.max > max) {
+            max = other.max;
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The highest value counted in the bucket at <code>index</code>.
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        long count = totalCount;
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns a value that <code>percentile</code> percent of the recorded
+     * values are at most equal to, e.g. <code>getValueAtPercentile(99)</code>.
+     * The value is the upper end of its bucket, capped by the maximum.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount;
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getTotalCount() + " mean=" + String.format("%.1f", getMean()) + " p50="
+                + getValueAtPercentile(50) + " p99=" + getValueAtPercentile(99) + " max=" + getMax();
+    }
+}
@@ -1,19 +1,37 @@
 package org.tivrfoa;
 
 public enum Level {
-    TRACE,
-    DEBUG,
-    INFO,
-    WARN,
-    ERROR;
+    TRACE(Level.TRACE_INT),
+    DEBUG(Level.DEBUG_INT),
+    INFO(Level.INFO_INT),
+    WARN(Level.WARN_INT),
+    ERROR(Level.ERROR_INT);
 
+    /*
+     * The int values are constants so that the isXEnabled() checks of Logger
+     * compile down to a compare with an immediate.
+     */
+    public static final int TRACE_INT = 0;
+    public static final int DEBUG_INT = 10;
+    public static final int INFO_INT = 20;
+    public static final int WARN_INT = 30;
+    public static final int ERROR_INT = 40;
+
+    public final int levelInt;
+
+    Level(int levelInt) {
+        this.levelInt = levelInt;
+    }
+
+    /**
+     * Returns true if events of level <code>other</code> pass a threshold of
+     * this level.
+     */
     public boolean equalOrAbove(Level other) {
-        return switch (this) {
-            case TRACE -> true;
-            case DEBUG -> other != TRACE;
-            case INFO -> other == INFO || other == WARN || other == ERROR;
-            case WARN -> other == WARN || other == ERROR;
-            case ERROR -> other == ERROR;
-        };
+        return levelInt <= other.levelInt;
+    }
+
+    public int toInt() {
+        return levelInt;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,28 @@
+package org.tivrfoa;
+
+/**
+ * Replies <code>onMatch</code> to the events of exactly one level and
+ * <code>onMismatch</code> to the others. By default it accepts only that
+ * level.
+ */
+public class LevelFilter implements Filter {
+
+    private final Level level;
+    private final FilterReply onMatch;
+    private final FilterReply onMismatch;
+
+    public LevelFilter(Level level) {
+        this(level, FilterReply.ACCEPT, FilterReply.DENY);
+    }
+
+    public LevelFilter(Level level, FilterReply onMatch, FilterReply onMismatch) {
+        this.level = level;
+        this.onMatch = onMatch;
+        this.onMismatch = onMismatch;
+    }
+
+    @Override
+    public FilterReply decide(LogEvent event) {
+        return event.getLevel() == level ? onMatch : onMismatch;
+    }
+}
@@ -1,22 +1,30 @@
 package org.tivrfoa;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Properties;
 
+/**
+ * The configuration read from <code>log.properties</code> when the class is
+ * loaded.
+ * <p>
+ * It never changes: after a reload, {@link LoggerContext} works from its
+ * current {@link Configuration}, see
+ * {@link LoggerContext#getConfiguration()}.
+ */
 public class LogConfig {
-    
-    private static Properties props = loadProperties();
-    public static final String OUTPUT_FILE_NAME = props.getProperty("output-file");
-    public static final Level LEVEL = Level.valueOf(props.getProperty("level"));
 
-    private static Properties loadProperties() {
-        Properties props = new Properties();
-        try (InputStream is = LogConfig.class.getClassLoader().getResourceAsStream("log.properties")) {
-            props.load(is);
+    static final Configuration INITIAL = loadConfiguration();
+    /**
+     * The level of loggers created outside of a {@link LoggerContext}.
+     */
+    public static final Level LEVEL = INITIAL.getLevel();
+
+    private static Configuration loadConfiguration() {
+        try {
+            return Configuration.load();
         } catch (IOException ioe) {
             ioe.printStackTrace();
+            return new Configuration(new Properties(), null);
         }
-        return props;
     }
 }
@@ -0,0 +1,218 @@
+package org.tivrfoa;
+
+import java.time.Instant;
+
+/**
+ * A single logging request, as it travels from a {@link Logger} to the
+ * appenders.
+ * <p>
+ * Events are mutable so that, in garbage-free mode, the instances
+ * preallocated in the slots of a {@link RingBuffer} can be filled in place by
+ * the caller and reused once the worker has written them. Nothing is rendered
+ * on the caller's thread: the timestamp is kept as two longs, the thread as
+ * its id and name and a parameterized message as its pattern plus arguments,
+ * and the appender turns them into text.
+ * <p>
+ * The thread itself is not kept, so that an event waiting in the queue does
+ * not hold on to a finished thread, which matters with many short-lived
+ * virtual threads.
+ */
+public class LogEvent {
+
+    private long epochSecond;
+    private long nanoOfSecond;
+    private Level level;
+    private long threadId;
+    private String threadName;
+    private String loggerName;
+    private String message;
+    /**
+     * Arguments of a parameterized message, already passed through
+     * {@link MessageFormatter#snapshot(Object)}. Reused across populates.
+     */
+    private Object[] params;
+    private int paramCount;
+
+    /**
+     * Whether {@link #populate} captures a nano precision timestamp. Set by
+     * {@link LoggerContext} from its configuration, read without
+     * synchronization: a change only needs to become visible eventually.
+     */
+    static boolean preciseTimestamps = LogConfig.INITIAL.isPreciseTimestamps();
+
+    /**
+     * The ring buffer sequence this event was claimed for, if it lives in a
+     * preallocated slot.
+     */
+    long sequence = -1;
+
+    /**
+     * Set on the marker a caller of {@link AsyncAppenderBase#sync()} enqueues
+     * instead of an event. Cleared by the worker when it takes the marker.
+     */
+    SyncRequest syncRequest;
+
+    public LogEvent() {
+    }
+
+    public LogEvent(Level level, String loggerName, String message) {
+        populate(level, loggerName, message);
+    }
+
+    /**
+     * Fills this event for a call made now, on the current thread.
+     */
+    public void populate(Level level, String loggerName, String message) {
+        if (preciseTimestamps) {
+            // escape analysis removes the Instant once the caller is compiled
+            Instant now = Instant.now();
+            this.epochSecond = now.getEpochSecond();
+            this.nanoOfSecond = now.getNano();
+        } else {
+            long millis = System.currentTimeMillis();
+            this.epochSecond = Math.floorDiv(millis, 1000);
+            this.nanoOfSecond = Math.floorMod(millis, 1000) * 1000_000L;
+        }
+        this.level = level;
+        Thread thread = Thread.currentThread();
+        this.threadId = thread.getId();
+        this.threadName = thread.getName();
+        this.loggerName = loggerName;
+        this.message = message;
+        this.paramCount = 0;
+    }
+
+    /**
+     * Fills this event with the values of an event read back from a log, see
+     * {@link BinaryLogDecoder}.
+     */
+    void restore(long epochSecond, long nanoOfSecond, Level level, long threadId, String threadName,
+            String loggerName, String message) {
+        this.epochSecond = epochSecond;
+        this.nanoOfSecond = nanoOfSecond;
+        this.level = level;
+        this.threadId = threadId;
+        this.threadName = threadName;
+        this.loggerName = loggerName;
+        this.message = message;
+        this.paramCount = 0;
+    }
+
+    public void setParameters(Object arg) {
+        ensureParamCapacity(1);
+        params[0] = MessageFormatter.snapshot(arg);
+        paramCount = 1;
+    }
+
+    public void setParameters(Object arg1, Object arg2) {
+        ensureParamCapacity(2);
+        params[0] = MessageFormatter.snapshot(arg1);
+        params[1] = MessageFormatter.snapshot(arg2);
+        paramCount = 2;
+    }
+
+    public void setParameters(Object arg1, Object arg2, Object arg3) {
+        ensureParamCapacity(3);
+        params[0] = MessageFormatter.snapshot(arg1);
+        params[1] = MessageFormatter.snapshot(arg2);
+        params[2] = MessageFormatter.snapshot(arg3);
+        paramCount = 3;
+    }
+
+    public void setParameters(Object[] args) {
+        if (args == null) {
+            paramCount = 0;
+            return;
+        }
+        ensureParamCapacity(args.length);
+        for (int i = 0; i < args.length; i++) {
+            params[i] = MessageFormatter.snapshot(args[i]);
+        }
+        paramCount = args.length;
+    }
+
+    private void ensureParamCapacity(int capacity) {
+        if (params == null || params.length < capacity) {
+            params = new Object[Math.max(capacity, 3)];
+        }
+    }
+
+    public void copyFrom(LogEvent other) {
+        this.epochSecond = other.epochSecond;
+        this.nanoOfSecond = other.nanoOfSecond;
+        this.level = other.level;
+        this.threadId = other.threadId;
+        this.threadName = other.threadName;
+        this.loggerName = other.loggerName;
+        this.message = other.message;
+        this.paramCount = 0;
+        if (other.paramCount > 0) {
+            ensureParamCapacity(other.paramCount);
+            System.arraycopy(other.params, 0, params, 0, other.paramCount);
+            this.paramCount = other.paramCount;
+        }
+    }
+
+    public long getEpochSecond() {
+        return epochSecond;
+    }
+
+    public long getNanoOfSecond() {
+        return nanoOfSecond;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     * Returns the name of the thread, which is empty for unnamed threads
+     * such as most virtual threads.
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    /**
+     * Returns the message, or its pattern if it is parameterized.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public int getParameterCount() {
+        return paramCount;
+    }
+
+    public Object getParameter(int index) {
+        return params[index];
+    }
+
+    /**
+     * Appends the message, with the parameters substituted, to <code>sb</code>.
+     */
+    public void appendFormattedMessage(StringBuilder sb) {
+        if (paramCount == 0) {
+            sb.append(message);
+        } else {
+            MessageFormatter.formatTo(sb, message, params, paramCount);
+        }
+    }
+
+    public String getFormattedMessage() {
+        if (paramCount == 0) {
+            return message;
+        }
+        StringBuilder sb = new StringBuilder();
+        appendFormattedMessage(sb);
+        return sb.toString();
+    }
+}
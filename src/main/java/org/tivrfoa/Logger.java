@@ -1,53 +1,445 @@
 package org.tivrfoa;
 
-import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 public class Logger {
 
-    private String name;
-    private AsyncAppenderBase asyncAppender;
+    public static final String ROOT_LOGGER_NAME = "ROOT";
 
+    /**
+     * The arity of a call whose arguments come in an array.
+     */
+    private static final int VARARGS = -1;
+    /**
+     * The longest a caller parks at once while waiting for a reconfiguration
+     * to swap pipelines.
+     */
+    private static final long MAX_SWAP_PARK_NANOS = 1_000_000;
+
+    private final String name;
+    /**
+     * Replaced when the context swaps its pipeline on a reload. The logging
+     * methods read it once per claim, since the event must be published to
+     * the appender it was claimed from.
+     */
+    private volatile AsyncAppenderBase asyncAppender;
+    private final Logger parent;
+    /**
+     * Guards the levels and the children of a whole hierarchy: the lock of
+     * the {@link LoggerContext} for its loggers, a lock of its own otherwise.
+     */
+    private final ReentrantLock hierarchyLock;
+    private final List<Logger> children = new ArrayList<>();
+
+    /**
+     * The level set on this logger, null when it is inherited.
+     */
+    private Level level;
+
+    /**
+     * The int value of the level set on this logger or inherited from the
+     * closest ancestor that has one. It is the only thing the logging methods
+     * read before deciding to drop an event, and it is deliberately not
+     * volatile: level changes are rare and only need to become visible
+     * eventually.
+     */
+    private int effectiveLevelInt;
+
+    /**
+     * Creates a logger writing to the shared pipeline of the default context.
+     *
+     * @deprecated use {@link LoggerFactory#getLogger(String)}, which also
+     *             caches the logger by name and places it in the level
+     *             hierarchy.
+     */
+    @Deprecated
     public Logger(String name) {
-        this.name = name;
+        this(name, (AsyncAppenderBase) null);
+        LoggerFactory.getContext().attach(this);
+    }
 
-        // TODO find a better place for the code below?!
-        // Should this be done every time a Logger is instantiated?
-        this.asyncAppender = new AsyncAppenderBase(new FileAppender(LogConfig.OUTPUT_FILE_NAME));
-        this.asyncAppender.start();
+    /**
+     * A logger outside of any hierarchy, with the level of
+     * <code>log.properties</code>.
+     */
+    Logger(String name, AsyncAppenderBase asyncAppender) {
+        this(name, null, asyncAppender, null);
+        this.level = LogConfig.LEVEL;
+        this.effectiveLevelInt = LogConfig.LEVEL.levelInt;
     }
 
+    Logger(String name, Logger parent, AsyncAppenderBase asyncAppender, ReentrantLock hierarchyLock) {
+        this.name = name;
+        this.parent = parent;
+        this.asyncAppender = asyncAppender;
+        this.hierarchyLock = hierarchyLock == null ? new ReentrantLock() : hierarchyLock;
+        if (parent != null) {
+            this.effectiveLevelInt = parent.effectiveLevelInt;
+            parent.children.add(this);
+        }
+    }
+
+    /**
+     * Returns the level set on this logger, or null if it inherits the level of
+     * its parent.
+     */
     public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the level in force for this logger, set on it or inherited.
+     */
+    public Level getEffectiveLevel() {
+        for (Logger logger = this; logger != null; logger = logger.parent) {
+            if (logger.level != null) {
+                return logger.level;
+            }
+        }
         return LogConfig.LEVEL;
     }
 
+    /**
+     * Sets the level of this logger, or makes it inherit the level of its
+     * parent when <code>level</code> is null. The new threshold is pushed down
+     * to the descendants that inherit it, so the check stays a single compare.
+     * The level of the root logger cannot be removed. Logging threads see the
+     * change eventually, not right away: the effective level is not volatile.
+     */
+    public void setLevel(Level level) {
+        hierarchyLock.lock();
+        try {
+            if (level == null && parent == null) {
+                throw new IllegalArgumentException("The level of the root logger cannot be null");
+            }
+            this.level = level;
+            propagate(level != null ? level.levelInt : parent.effectiveLevelInt);
+        } finally {
+            hierarchyLock.unlock();
+        }
+    }
+
+    private void propagate(int newEffectiveLevelInt) {
+        effectiveLevelInt = newEffectiveLevelInt;
+        for (Logger child : children) {
+            if (child.level == null) {
+                child.propagate(newEffectiveLevelInt);
+            }
+        }
+    }
+
+    void setAppender(AsyncAppenderBase asyncAppender) {
+        this.asyncAppender = asyncAppender;
+    }
+
+    Logger getParent() {
+        return parent;
+    }
+
     public String getName() {
         return name;
     }
 
+    public boolean isTraceEnabled() {
+        return effectiveLevelInt <= Level.TRACE_INT;
+    }
+
+    public boolean isDebugEnabled() {
+        return effectiveLevelInt <= Level.DEBUG_INT;
+    }
+
+    public boolean isInfoEnabled() {
+        return effectiveLevelInt <= Level.INFO_INT;
+    }
+
+    public boolean isWarnEnabled() {
+        return effectiveLevelInt <= Level.WARN_INT;
+    }
+
+    public boolean isErrorEnabled() {
+        return effectiveLevelInt <= Level.ERROR_INT;
+    }
+
+    /*
+     * The level is checked by the public methods, against a constant, before
+     * calling these. The parameterized variants only snapshot their
+     * arguments: the pattern is formatted later, by the appender, on the
+     * worker thread. The fixed arity ones avoid the varargs array.
+     */
+
     private void log(Level level, String msg) {
-        if (LogConfig.LEVEL.equalOrAbove(level)) {
-            asyncAppender.doAppend(ZonedDateTime.now() + " " + level + " [" +
-                   Thread.currentThread().getName() + "] " + name + ": "  + msg + "\n");
+        log(level, msg, 0, null, null, null, null);
+    }
+
+    private void log(Level level, String pattern, Object arg) {
+        log(level, pattern, 1, arg, null, null, null);
+    }
+
+    private void log(Level level, String pattern, Object arg1, Object arg2) {
+        log(level, pattern, 2, arg1, arg2, null, null);
+    }
+
+    private void log(Level level, String pattern, Object arg1, Object arg2, Object arg3) {
+        log(level, pattern, 3, arg1, arg2, arg3, null);
+    }
+
+    private void log(Level level, String pattern, Object[] args) {
+        log(level, pattern, VARARGS, null, null, null, args);
+    }
+
+    /**
+     * Claims an event, fills it in and publishes it to the appender it was
+     * claimed from.
+     *
+     * @param arity the number of arguments given in <code>arg1</code> to
+     *              <code>arg3</code>, or {@link #VARARGS} when they are in
+     *              <code>args</code>
+     */
+    private void log(Level level, String pattern, int arity, Object arg1, Object arg2, Object arg3, Object[] args) {
+        AsyncAppenderBase appender;
+        LogEvent event;
+        do {
+            appender = asyncAppender;
+            event = appender.claim(level);
+            // a pipeline replaced by a reconfiguration, retried on the new one
+        } while (event == null && appender.replaced && awaitSwap(appender));
+        if (event == null) {
+            return;
+        }
+        try {
+            event.populate(level, name, pattern);
+            switch (arity) {
+                case 0 -> {
+                }
+                case 1 -> event.setParameters(arg1);
+                case 2 -> event.setParameters(arg1, arg2);
+                case 3 -> event.setParameters(arg1, arg2, arg3);
+                default -> event.setParameters(args);
+            }
+        } finally {
+            // a claimed slot must be published, or the worker waits on it
+            appender.publish(event);
+        }
+    }
+
+    /**
+     * Waits until this logger is pointed away from <code>appender</code>, a
+     * pipeline a reconfiguration stops before it creates the new one.
+     *
+     * @return whether the logger moved to another pipeline; false if the
+     *         reconfiguration failed
+     */
+    private boolean awaitSwap(AsyncAppenderBase appender) {
+        long parkNanos = 1_000;
+        while (asyncAppender == appender && appender.replaced) {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos * 2, MAX_SWAP_PARK_NANOS);
         }
+        return asyncAppender != appender;
+    }
+
+    /**
+     * The supplier is only called if the level is enabled, on the caller's
+     * thread, since it may read state that is not safe to share.
+     */
+    private void log(Level level, Supplier<String> msgSupplier) {
+        log(level, msgSupplier.get());
     }
 
     public void trace(String msg) {
-        log(Level.TRACE, msg);
+        if (isTraceEnabled()) {
+            log(Level.TRACE, msg);
+        }
+    }
+
+    public void trace(String pattern, Object arg) {
+        if (isTraceEnabled()) {
+            log(Level.TRACE, pattern, arg);
+        }
+    }
+
+    public void trace(String pattern, Object arg1, Object arg2) {
+        if (isTraceEnabled()) {
+            log(Level.TRACE, pattern, arg1, arg2);
+        }
+    }
+
+    public void trace(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (isTraceEnabled()) {
+            log(Level.TRACE, pattern, arg1, arg2, arg3);
+        }
+    }
+
+    public void trace(String pattern, Object... args) {
+        if (isTraceEnabled()) {
+            log(Level.TRACE, pattern, args);
+        }
+    }
+
+    public void trace(Supplier<String> msgSupplier) {
+        if (isTraceEnabled()) {
+            log(Level.TRACE, msgSupplier);
+        }
     }
 
     public void debug(String msg) {
-        log(Level.DEBUG, msg);
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, msg);
+        }
+    }
+
+    public void debug(String pattern, Object arg) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, pattern, arg);
+        }
+    }
+
+    public void debug(String pattern, Object arg1, Object arg2) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, pattern, arg1, arg2);
+        }
+    }
+
+    public void debug(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, pattern, arg1, arg2, arg3);
+        }
+    }
+
+    public void debug(String pattern, Object... args) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, pattern, args);
+        }
+    }
+
+    public void debug(Supplier<String> msgSupplier) {
+        if (isDebugEnabled()) {
+            log(Level.DEBUG, msgSupplier);
+        }
     }
 
     public void info(String msg) {
-        log(Level.INFO, msg);
+        if (isInfoEnabled()) {
+            log(Level.INFO, msg);
+        }
+    }
+
+    public void info(String pattern, Object arg) {
+        if (isInfoEnabled()) {
+            log(Level.INFO, pattern, arg);
+        }
+    }
+
+    public void info(String pattern, Object arg1, Object arg2) {
+        if (isInfoEnabled()) {
+            log(Level.INFO, pattern, arg1, arg2);
+        }
+    }
+
+    public void info(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (isInfoEnabled()) {
+            log(Level.INFO, pattern, arg1, arg2, arg3);
+        }
+    }
+
+    public void info(String pattern, Object... args) {
+        if (isInfoEnabled()) {
+            log(Level.INFO, pattern, args);
+        }
+    }
+
+    public void info(Supplier<String> msgSupplier) {
+        if (isInfoEnabled()) {
+            log(Level.INFO, msgSupplier);
+        }
     }
 
     public void warn(String msg) {
-        log(Level.WARN, msg);
+        if (isWarnEnabled()) {
+            log(Level.WARN, msg);
+        }
+    }
+
+    public void warn(String pattern, Object arg) {
+        if (isWarnEnabled()) {
+            log(Level.WARN, pattern, arg);
+        }
+    }
+
+    public void warn(String pattern, Object arg1, Object arg2) {
+        if (isWarnEnabled()) {
+            log(Level.WARN, pattern, arg1, arg2);
+        }
+    }
+
+    public void warn(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (isWarnEnabled()) {
+            log(Level.WARN, pattern, arg1, arg2, arg3);
+        }
+    }
+
+    public void warn(String pattern, Object... args) {
+        if (isWarnEnabled()) {
+            log(Level.WARN, pattern, args);
+        }
+    }
+
+    public void warn(Supplier<String> msgSupplier) {
+        if (isWarnEnabled()) {
+            log(Level.WARN, msgSupplier);
+        }
     }
 
     public void error(String msg) {
-        log(Level.ERROR, msg);
+        if (isErrorEnabled()) {
+            log(Level.ERROR, msg);
+        }
+    }
+
+    public void error(String pattern, Object arg) {
+        if (isErrorEnabled()) {
+            log(Level.ERROR, pattern, arg);
+        }
+    }
+
+    public void error(String pattern, Object arg1, Object arg2) {
+        if (isErrorEnabled()) {
+            log(Level.ERROR, pattern, arg1, arg2);
+        }
+    }
+
+    public void error(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (isErrorEnabled()) {
+            log(Level.ERROR, pattern, arg1, arg2, arg3);
+        }
+    }
+
+    public void error(String pattern, Object... args) {
+        if (isErrorEnabled()) {
+            log(Level.ERROR, pattern, args);
+        }
+    }
+
+    public void error(Supplier<String> msgSupplier) {
+        if (isErrorEnabled()) {
+            log(Level.ERROR, msgSupplier);
+        }
+    }
+
+    /**
+     * Blocks until the events the calling thread logged so far through this
+     * logger's pipeline are forced to the storage device, see
+     * {@link AsyncAppenderBase#sync()}. Logging an audit event, then calling
+     * this method, makes a durable append, unless the event was discarded: log
+     * it at WARN or above, and do not set <code>never-block</code>.
+     *
+     * @return whether they were
+     */
+    public boolean sync() {
+        return asyncAppender.sync();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,587 @@
+package org.tivrfoa;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Owns the loggers and the appender pipelines they write to.
+ * <p>
+ * Loggers are cached by name and every output target gets a single
+ * {@link AsyncAppenderBase} (one worker thread, one open file), no matter how
+ * many loggers write to it. The pipelines are started lazily, the first time a
+ * logger needs them, and stopped by {@link #stop()} or by the shutdown hook
+ * registered on {@link #start()}.
+ * <p>
+ * The configuration can be replaced at runtime with {@link #reload()} or
+ * {@link #reconfigure(Configuration)}, or automatically when
+ * <code>reload-on-change</code> is set. Levels are updated in place. Any other
+ * change builds new pipelines and points the loggers to them; the old
+ * pipelines are then stopped, which writes the events they still hold. A
+ * caller that reached an old pipeline once it was stopping logs to the new
+ * one instead. When the new pipeline writes to a file an old one has open,
+ * the old one is stopped first, and the callers wait for the new one.
+ */
+public class LoggerContext {
+
+    private final ConcurrentMap<String, Logger> loggerCache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AsyncAppenderBase> appenderCache = new ConcurrentHashMap<>();
+
+    /**
+     * Loggers created with the deprecated {@link Logger#Logger(String)}, which
+     * are not cached, so that a reconfiguration points them to the new
+     * pipeline as well. Weak, since nothing else keeps them.
+     */
+    private final Set<Logger> detachedLoggers = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private volatile Configuration configuration = LogConfig.INITIAL;
+
+    /**
+     * Guards the hierarchy and the lifecycle. A lock rather than
+     * <code>synchronized</code>, so that a virtual thread creating the first
+     * logger, which opens the log file, does not pin its carrier thread.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile boolean started = false;
+    private Thread shutdownHook;
+    private ConfigurationWatcher watcher;
+
+    /**
+     * Returns the logger with the given name, creating it on first use.
+     * <p>
+     * Loggers form a hierarchy on the dots of their names: the parent of
+     * <code>com.foo.Bar</code> is <code>com.foo</code>, then <code>com</code>,
+     * then the root logger. The missing ancestors are created along the way,
+     * with the level configured for them in <code>log.properties</code>, if
+     * any.
+     */
+    public Logger getLogger(String name) {
+        Logger logger = loggerCache.get(name);
+        if (logger != null) {
+            return logger;
+        }
+        lock.lock();
+        try {
+            AsyncAppenderBase appender = getAppender(configuration.getOutputFile());
+            Logger parent = getRootLogger(appender);
+            if (Logger.ROOT_LOGGER_NAME.equalsIgnoreCase(name)) {
+                return parent;
+            }
+            int from = 0;
+            while (true) {
+                int dot = name.indexOf('.', from);
+                String childName = dot == -1 ? name : name.substring(0, dot);
+                Logger child = loggerCache.get(childName);
+                if (child == null) {
+                    child = new Logger(childName, parent, appender, lock);
+                    Level level = configuration.getLoggerLevels().get(childName);
+                    if (level != null) {
+                        child.setLevel(level);
+                    }
+                    loggerCache.put(childName, child);
+                }
+                if (dot == -1) {
+                    return child;
+                }
+                parent = child;
+                from = dot + 1;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Points a logger created outside of the cache to the current pipeline,
+     * and keeps it there across reconfigurations.
+     */
+    void attach(Logger logger) {
+        lock.lock();
+        try {
+            logger.setAppender(getAppender(configuration.getOutputFile()));
+            logger.setLevel(detachedLevel(logger));
+            detachedLoggers.add(logger);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The level of a logger outside of the hierarchy: the one configured for
+     * its name, or the root level.
+     */
+    private Level detachedLevel(Logger logger) {
+        Level level = configuration.getLoggerLevels().get(logger.getName());
+        return level != null ? level : configuration.getLevel();
+    }
+
+    private Logger getRootLogger(AsyncAppenderBase appender) {
+        Logger root = loggerCache.get(Logger.ROOT_LOGGER_NAME);
+        if (root == null) {
+            root = new Logger(Logger.ROOT_LOGGER_NAME, null, appender, lock);
+            root.setLevel(configuration.getLevel());
+            loggerCache.put(Logger.ROOT_LOGGER_NAME, root);
+        }
+        return root;
+    }
+
+    /**
+     * Returns the started appender pipeline writing to <code>fileName</code>.
+     * The pipeline is created and started the first time it is requested.
+     */
+    public AsyncAppenderBase getAppender(String fileName) {
+        AsyncAppenderBase appender = appenderCache.get(fileName);
+        if (appender != null) {
+            return appender;
+        }
+        start();
+        return appenderCache.computeIfAbsent(fileName, this::createAppender);
+    }
+
+    private AsyncAppenderBase createAppender(String fileName) {
+        Configuration config = configuration;
+        AsyncAppenderBase asyncAppender;
+        if (config.getShards() > 1) {
+            asyncAppender = createShardedAppender(config, fileName);
+        } else if (config.isStaging()) {
+            asyncAppender = createStagingAppender(config, fileName);
+        } else {
+            // one encoder for all the text appenders, so that the worker encodes
+            // each batch only once
+            PatternLayout layout = newLayout(config);
+            asyncAppender = new AsyncAppenderBase(
+                    createFileAppender(config, fileName, config.getRollingFileNamePattern(),
+                            fileEncoder(config, layout)));
+            if (config.getErrorFile() != null) {
+                FileAppender errorAppender = new FileAppender();
+                errorAppender.setName(config.getErrorFile());
+                errorAppender.setFile(config.getErrorFile());
+                errorAppender.setBufferSize(config.getBufferSize());
+                errorAppender.setFileChannel(config.isFileChannel());
+                errorAppender.setPrudent(config.isPrudent());
+                errorAppender.setMaxLockHoldMillis(config.getPrudentMaxLockHold());
+                errorAppender.setEncoder(fileEncoder(config, layout));
+                errorAppender.setFlushPolicy(config.getFlushPolicy());
+                errorAppender.setSyncPolicy(config.getSyncPolicy());
+                errorAppender.setSyncOnError(config.isSyncOnError());
+                errorAppender.addFilter(new ThresholdFilter(config.getErrorFileThreshold()));
+                errorAppender.start();
+                asyncAppender.addAppender(errorAppender);
+            }
+            if (config.isConsole()) {
+                ConsoleAppender consoleAppender = new ConsoleAppender();
+                consoleAppender.setName("console");
+                consoleAppender.setEncoder(layout);
+                consoleAppender.setFlushPolicy(config.getFlushPolicy());
+                consoleAppender.addFilter(new ThresholdFilter(config.getConsoleThreshold()));
+                consoleAppender.start();
+                asyncAppender.addAppender(consoleAppender);
+            }
+        }
+        asyncAppender.setName(fileName);
+        asyncAppender.setQueueType(config.getQueueType());
+        asyncAppender.setQueueSize(config.getQueueSize());
+        asyncAppender.setNeverBlock(config.isNeverBlock());
+        if (config.getDiscardingThreshold() != AsyncAppenderBase.UNDEFINED) {
+            asyncAppender.setDiscardingThreshold(config.getDiscardingThreshold());
+        }
+        asyncAppender.setDiscardReportInterval(config.getDiscardReportInterval());
+        asyncAppender.setMaxBatchSize(config.getMaxBatchSize());
+        asyncAppender.setMaxBatchDelay(config.getMaxBatchDelay());
+        asyncAppender.setTargetLatency(config.getTargetLatency());
+        asyncAppender.setMaxFlushTime(config.getMaxFlushTime());
+        asyncAppender.setForceOnStop(config.isForceOnStop());
+        asyncAppender.setWaitStrategy(config.getWaitStrategy());
+        asyncAppender.setGarbageFree(config.isGarbageFree());
+        asyncAppender.setVirtualWorker(config.isVirtualWorker());
+        asyncAppender.start();
+        if (config.isJmx()) {
+            registerMBean(asyncAppender);
+        }
+        return asyncAppender;
+    }
+
+    private ShardedAsyncAppender createShardedAppender(Configuration config, String fileName) {
+        if (config.getErrorFile() != null || config.isConsole()) {
+            System.err.println("error-file and console are not supported with shards, ignoring them");
+        }
+        if (config.getFormat() == Configuration.Format.BINARY
+                && config.getShardOutput() == ShardedAsyncAppender.Output.MERGED) {
+            System.err.println("The binary format is not supported with merged shards, writing text");
+        }
+        ShardedAsyncAppender sharded = new ShardedAsyncAppender();
+        sharded.setShardCount(config.getShards());
+        sharded.setOutput(config.getShardOutput());
+        if (config.getShardOutput() == ShardedAsyncAppender.Output.MERGED) {
+            sharded.addAppender(createFileAppender(config, fileName, config.getRollingFileNamePattern(), newLayout(config)));
+            sharded.setEncoderFactory(() -> newLayout(config));
+        } else {
+            String rollingPattern = config.getRollingFileNamePattern();
+            sharded.setShardAppenderFactory(shard -> createFileAppender(config,
+                    ShardedAsyncAppender.shardFileName(fileName, shard),
+                    rollingPattern == null ? null : ShardedAsyncAppender.shardFileName(rollingPattern, shard),
+                    fileEncoder(config, newLayout(config))));
+        }
+        return sharded;
+    }
+
+    private StagingAsyncAppender createStagingAppender(Configuration config, String fileName) {
+        if (config.getErrorFile() != null || config.isConsole()) {
+            System.err.println("error-file and console are not supported with staging, ignoring them");
+        }
+        if (config.getFormat() == Configuration.Format.BINARY) {
+            System.err.println("The binary format is not supported with staging, writing text");
+        }
+        StagingAsyncAppender staging = new StagingAsyncAppender();
+        staging.addAppender(createFileAppender(config, fileName, config.getRollingFileNamePattern(), newLayout(config)));
+        staging.setEncoderFactory(() -> newLayout(config));
+        staging.setStagingBufferSize(config.getStagingBufferSize());
+        staging.setLingerMillis(config.getStagingLinger());
+        return staging;
+    }
+
+    private static PatternLayout newLayout(Configuration config) {
+        return new PatternLayout(config.getPattern(), config.getTimestampFormat());
+    }
+
+    /**
+     * Returns the encoder of a file: <code>layout</code>, or a new
+     * {@link BinaryEncoder} in the binary format since each file needs its
+     * own.
+     */
+    private static Encoder fileEncoder(Configuration config, PatternLayout layout) {
+        if (config.getFormat() == Configuration.Format.BINARY) {
+            if (!config.isPrudent()) {
+                return new BinaryEncoder(config.getPattern(), config.getTimestampFormat());
+            }
+            System.err.println("The binary format is not supported in prudent mode, writing text");
+        }
+        return layout;
+    }
+
+    /**
+     * Creates and starts the appender writing to <code>fileName</code>: a
+     * {@link RollingFileAppender} when <code>rollingPattern</code> is set, a
+     * {@link MappedFileAppender} or a plain {@link FileAppender}.
+     */
+    private static FileAppender createFileAppender(Configuration config, String fileName, String rollingPattern,
+            Encoder encoder) {
+        FileAppender fileAppender;
+        if (rollingPattern != null) {
+            RollingFileAppender rollingFileAppender = new RollingFileAppender();
+            rollingFileAppender.setFileNamePattern(rollingPattern);
+            rollingFileAppender.setMaxFileSize(config.getRollingMaxFileSize());
+            rollingFileAppender.setMaxHistory(config.getRollingMaxHistory());
+            rollingFileAppender.setTotalSizeCap(config.getRollingTotalSizeCap());
+            fileAppender = rollingFileAppender;
+        } else if (config.isMappedFile()) {
+            MappedFileAppender mappedFileAppender = new MappedFileAppender();
+            mappedFileAppender.setRegionSize(config.getMappedRegionSize());
+            mappedFileAppender.setForceInterval(config.getMappedForceInterval());
+            fileAppender = mappedFileAppender;
+        } else {
+            fileAppender = new FileAppender();
+        }
+        fileAppender.setName(fileName);
+        fileAppender.setFile(fileName);
+        fileAppender.setBufferSize(config.getBufferSize());
+        fileAppender.setFileChannel(config.isFileChannel());
+        fileAppender.setPrudent(config.isPrudent());
+        fileAppender.setMaxLockHoldMillis(config.getPrudentMaxLockHold());
+        fileAppender.setEncoder(encoder);
+        fileAppender.setFlushPolicy(config.getFlushPolicy());
+        fileAppender.setSyncPolicy(config.getSyncPolicy());
+        fileAppender.setSyncOnError(config.isSyncOnError());
+        fileAppender.start();
+        return fileAppender;
+    }
+
+    private static ObjectName objectName(AsyncAppenderBase appender) throws JMException {
+        return new ObjectName("org.tivrfoa:type=AsyncAppender,name=" + ObjectName.quote(appender.getName()));
+    }
+
+    /**
+     * Registers the metrics of <code>appender</code>, and of each of its
+     * shards.
+     */
+    private static void registerMBean(AsyncAppenderBase appender) {
+        if (appender instanceof ShardedAsyncAppender) {
+            List<AsyncAppenderBase> shards = ((ShardedAsyncAppender) appender).getShards();
+            if (shards != null) {
+                shards.forEach(LoggerContext::registerMBean);
+            }
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(appender);
+            if (server.isRegistered(name)) {
+                System.err.println("An MBean is already registered as [" + name + "], not registering the metrics of ["
+                        + appender.getName() + "]");
+                return;
+            }
+            server.registerMBean(appender.getMetrics(), name);
+        } catch (JMException e) {
+            System.err.println("Failed to register the metrics of [" + appender.getName() + "]: " + e);
+        }
+    }
+
+    private static void unregisterMBean(AsyncAppenderBase appender) {
+        if (appender instanceof ShardedAsyncAppender) {
+            List<AsyncAppenderBase> shards = ((ShardedAsyncAppender) appender).getShards();
+            if (shards != null) {
+                shards.forEach(LoggerContext::unregisterMBean);
+            }
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(appender);
+            if (server.isRegistered(name) && server.isInstanceOf(name, AppenderMetrics.class.getName())) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to unregister the metrics of [" + appender.getName() + "]: " + e);
+        }
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Reads the configuration again from where the current one came from, or
+     * from the classpath, and applies it. An invalid file is reported and
+     * ignored.
+     */
+    public void reload() {
+        Configuration current = configuration;
+        try {
+            reconfigure(current.getSource() != null ? Configuration.load(current.getSource()) : Configuration.load());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Failed to reload the configuration, keeping the current one: " + e);
+        }
+    }
+
+    /**
+     * Applies <code>newConfiguration</code>.
+     * <p>
+     * Levels are all set under the context lock, so loggers are created and
+     * levels changed either before or after the whole update. If anything
+     * else changed, the pipelines are rebuilt: the loggers are pointed to the
+     * new ones first, then the old ones are stopped, outside of the lock,
+     * writing the events they hold. If the new pipeline opens a file an old
+     * one writes to, the old ones are stopped first instead, under the lock,
+     * so that a single pipeline writes to a file at any time; meanwhile the
+     * callers wait, then log to the new pipeline. Levels set with
+     * {@link Logger#setLevel(Level)} are replaced by the configured ones.
+     */
+    public void reconfigure(Configuration newConfiguration) {
+        List<AsyncAppenderBase> oldAppenders = Collections.emptyList();
+        lock.lock();
+        try {
+            Configuration old = configuration;
+            configuration = newConfiguration;
+            LogEvent.preciseTimestamps = newConfiguration.isPreciseTimestamps();
+            UnsynchronizedAppenderBase.checkSingleWriter = newConfiguration.isCheckSingleWriter();
+
+            if (!newConfiguration.samePipeline(old) && !appenderCache.isEmpty()) {
+                oldAppenders = new ArrayList<>(appenderCache.values());
+                boolean sameFiles = sharesFiles(old, newConfiguration);
+                appenderCache.clear();
+                // free the MBean names for the new pipelines
+                for (AsyncAppenderBase oldAppender : oldAppenders) {
+                    unregisterMBean(oldAppender);
+                }
+                if (sameFiles) {
+                    stopBeforeSwap(oldAppenders);
+                    oldAppenders = Collections.emptyList();
+                } else {
+                    swap();
+                    // once stopping, they send the callers that still reach them to the new one
+                    for (AsyncAppenderBase oldAppender : oldAppenders) {
+                        oldAppender.setReplaced(true);
+                    }
+                }
+            }
+
+            Logger root = loggerCache.get(Logger.ROOT_LOGGER_NAME);
+            if (root != null) {
+                root.setLevel(newConfiguration.getLevel());
+            }
+            for (Logger logger : loggerCache.values()) {
+                if (logger != root) {
+                    logger.setLevel(newConfiguration.getLoggerLevels().get(logger.getName()));
+                }
+            }
+            for (Logger logger : detachedLoggers) {
+                logger.setLevel(detachedLevel(logger));
+            }
+
+            if (started) {
+                updateWatcher();
+            }
+            System.out.println("Configuration " + (newConfiguration.getSource() != null ? "from [" + newConfiguration.getSource() + "] " : "") + "applied");
+        } finally {
+            lock.unlock();
+        }
+        for (AsyncAppenderBase oldAppender : oldAppenders) {
+            oldAppender.stop();
+        }
+    }
+
+    /**
+     * Whether the pipeline of <code>newConfiguration</code> opens a file one
+     * of the current pipelines writes to.
+     */
+    private boolean sharesFiles(Configuration old, Configuration newConfiguration) {
+        return appenderCache.containsKey(newConfiguration.getOutputFile())
+                || newConfiguration.getErrorFile() != null
+                        && newConfiguration.getErrorFile().equals(old.getErrorFile());
+    }
+
+    /**
+     * Points the loggers to the pipeline of the current configuration,
+     * creating it.
+     */
+    private void swap() {
+        AsyncAppenderBase appender = getAppender(configuration.getOutputFile());
+        for (Logger logger : loggerCache.values()) {
+            logger.setAppender(appender);
+        }
+        for (Logger logger : detachedLoggers) {
+            logger.setAppender(appender);
+        }
+    }
+
+    /**
+     * Stops <code>oldAppenders</code>, which writes what they hold and closes
+     * their files, then swaps. The callers fenced off by the stopping
+     * pipelines wait for the swap; if it fails, they are let go and their
+     * events are lost.
+     */
+    private void stopBeforeSwap(List<AsyncAppenderBase> oldAppenders) {
+        for (AsyncAppenderBase oldAppender : oldAppenders) {
+            oldAppender.setReplaced(true);
+        }
+        boolean swapped = false;
+        try {
+            for (AsyncAppenderBase oldAppender : oldAppenders) {
+                oldAppender.stop();
+            }
+            swap();
+            swapped = true;
+        } finally {
+            if (!swapped) {
+                for (AsyncAppenderBase oldAppender : oldAppenders) {
+                    oldAppender.setReplaced(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts, stops or moves the watcher of the configuration file, as
+     * requested by the current configuration.
+     */
+    private void updateWatcher() {
+        Path file = configuration.isReloadOnChange() ? configuration.getSourcePath() : null;
+        if (watcher != null && (file == null || !watcher.getFile().equals(file.toAbsolutePath()))) {
+            watcher.shutdown();
+            watcher = null;
+        }
+        if (file != null && watcher == null) {
+            try {
+                watcher = new ConfigurationWatcher(this, file);
+                watcher.start();
+            } catch (IOException e) {
+                System.err.println("Cannot watch [" + file + "] for changes: " + e);
+            }
+        }
+        if (configuration.isReloadOnChange() && configuration.getSourcePath() == null) {
+            System.err.println("reload-on-change is set but the configuration was not read from a file");
+        }
+    }
+
+    /**
+     * Registers the shutdown hook that stops this context when the JVM exits.
+     * Calling it more than once has no effect.
+     */
+    public void start() {
+        lock.lock();
+        try {
+            if (started) {
+                return;
+            }
+            shutdownHook = new Thread(this::stopFromShutdownHook, "LoggerContext-ShutdownHook");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+            started = true;
+            updateWatcher();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops every appender pipeline, flushing the events still queued, and
+     * forgets the cached loggers.
+     */
+    public void stop() {
+        lock.lock();
+        try {
+            if (!started) {
+                return;
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM is already shutting down
+            }
+            stopAppenders();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void stopFromShutdownHook() {
+        lock.lock();
+        try {
+            if (!started) {
+                return;
+            }
+            stopAppenders();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void stopAppenders() {
+        if (watcher != null) {
+            watcher.shutdown();
+            watcher = null;
+        }
+        for (AsyncAppenderBase appender : appenderCache.values()) {
+            unregisterMBean(appender);
+            appender.stop();
+        }
+        appenderCache.clear();
+        loggerCache.clear();
+        shutdownHook = null;
+        started = false;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+}
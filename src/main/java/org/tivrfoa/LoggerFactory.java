@@ -0,0 +1,27 @@
+package org.tivrfoa;
+
+/**
+ * Entry point for obtaining {@link Logger} instances.
+ * <p>
+ * All loggers returned by this class share the default {@link LoggerContext},
+ * so they also share its appender pipelines.
+ */
+public final class LoggerFactory {
+
+    private static final LoggerContext DEFAULT_CONTEXT = new LoggerContext();
+
+    private LoggerFactory() {
+    }
+
+    public static Logger getLogger(String name) {
+        return DEFAULT_CONTEXT.getLogger(name);
+    }
+
+    public static Logger getLogger(Class<?> clazz) {
+        return getLogger(clazz.getName());
+    }
+
+    public static LoggerContext getContext() {
+        return DEFAULT_CONTEXT;
+    }
+}
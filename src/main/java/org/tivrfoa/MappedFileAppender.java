@@ -0,0 +1,206 @@
+package org.tivrfoa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * A {@link FileAppender} that writes into a memory-mapped region of the file
+ * instead of calling <code>write()</code>.
+ * <p>
+ * A region of <code>regionSize</code> bytes is mapped ahead of the current end
+ * of the log, and events are copied into it at memory speed; the operating
+ * system writes the dirty pages back on its own schedule. When the region is
+ * full the next one is mapped right after it. On {@link #stop()} the file is
+ * truncated to the bytes actually written, so the unused part of the last
+ * region does not show up as trailing zeros.
+ * <p>
+ * Since the OS decides when pages reach the disk, a crash of the machine (not
+ * of the JVM) can lose recent events. Set a {@link SyncPolicy}, or
+ * <code>forceInterval</code> for short, to force the region to disk; each
+ * region is then also forced before the next one is mapped. The last region
+ * is forced before the file is truncated on close.
+ * <p>
+ * Prudent mode is not supported: several processes cannot append to the same
+ * mapping.
+ */
+public class MappedFileAppender extends FileAppender {
+
+    public static final long DEFAULT_REGION_SIZE = 32 * FileSize.MB_COEFFICIENT;
+
+    private FileSize regionSize = new FileSize(DEFAULT_REGION_SIZE);
+
+    /**
+     * Milliseconds between two calls to {@link MappedByteBuffer#force()}, 0 to
+     * leave write back to the OS. Stands for
+     * {@link SyncPolicy#everyMillis(long)} when no sync policy is set.
+     */
+    private long forceInterval = 0;
+
+    private FileChannel channel;
+    private MappedByteBuffer region;
+    /**
+     * File offset of the start of the current region.
+     */
+    private long regionStart;
+
+    @Override
+    public void start() {
+        if (isPrudent()) {
+            System.err.println("Prudent mode is not supported by MappedFileAppender [" + name + "]");
+            return;
+        }
+        if (forceInterval > 0) {
+            if (getSyncPolicy().getMode() == SyncPolicy.Mode.NONE) {
+                setSyncPolicy(SyncPolicy.everyMillis(forceInterval));
+            } else {
+                System.out.println("Sync policy " + getSyncPolicy() + " set on [" + name + "], ignoring forceInterval");
+            }
+        }
+        super.start();
+    }
+
+    @Override
+    public void openFile(String file_name) throws IOException {
+        lock.lock();
+        try {
+            File file = new File(file_name);
+            boolean result = FileUtil.createMissingParentDirectories(file);
+            if (!result) {
+                System.err.println("Failed to create parent directories for [" + file.getAbsolutePath() + "]");
+            }
+
+            closeOutputStream();
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            if (isAppend()) {
+                regionStart = channel.size();
+            } else {
+                channel.truncate(0);
+                regionStart = 0;
+            }
+            region = map(regionStart);
+            setOutputStream(new MappedOutputStream());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private MappedByteBuffer map(long position) throws IOException {
+        // Clear any current interrupt, it would close the channel (see LOGBACK-875)
+        boolean interrupted = Thread.interrupted();
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, regionSize.getSize());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Copies <code>src</code> into the mapped regions, mapping the next region
+     * as often as needed.
+     */
+    private void put(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (!region.hasRemaining()) {
+                if (getSyncPolicy().getMode() != SyncPolicy.Mode.NONE || isSyncOnError()) {
+                    // the next sync only forces the new region
+                    region.force();
+                }
+                regionStart += region.position();
+                region = map(regionStart);
+            }
+            int length = Math.min(src.remaining(), region.remaining());
+            region.put(region.position(), src, src.position(), length);
+            region.position(region.position() + length);
+            src.position(src.position() + length);
+        }
+    }
+
+    @Override
+    protected void writeChunks(List<EncodeBuffer> chunks, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            // a view, the chunk may be shared with the other appenders of the batch
+            put(chunks.get(i).buffer().duplicate().flip());
+        }
+    }
+
+    /**
+     * Writes the mapped pages of the current region to the storage device,
+     * then forces the file, which also covers the pages of the previous
+     * regions left to the OS when no sync policy is set.
+     */
+    @Override
+    protected void forceContent() throws IOException {
+        if (region == null) {
+            throw new IOException("the file is not open");
+        }
+        region.force();
+        channel.force(false);
+    }
+
+    public FileSize getRegionSize() {
+        return regionSize;
+    }
+
+    /**
+     * Size of each mapped region. Must be set before the file is opened.
+     */
+    public void setRegionSize(FileSize regionSize) {
+        System.out.println("Setting regionSize to [" + regionSize + "]");
+        this.regionSize = regionSize;
+    }
+
+    public long getForceInterval() {
+        return forceInterval;
+    }
+
+    public void setForceInterval(long forceInterval) {
+        this.forceInterval = forceInterval;
+    }
+
+    /**
+     * The {@link OutputStream} view of the mapping, for writes that do not go
+     * through {@link #writeChunks(List, int)}. Closing it truncates the file
+     * to the bytes written.
+     */
+    private class MappedOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            put(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel == null) {
+                return;
+            }
+            boolean interrupted = Thread.interrupted();
+            try {
+                long end = regionStart + region.position();
+                region.force();
+                region = null;
+                channel.truncate(end);
+                channel.close();
+                channel = null;
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.tivrfoa;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Substitutes the <code>{}</code> anchors of a message pattern with its
+ * arguments, SLF4J style. A <code>{}</code> preceded by a backslash is printed
+ * as is.
+ * <p>
+ * Formatting is meant to happen on the worker thread, so the caller only calls
+ * {@link #snapshot(Object)} to make sure that what is queued cannot change
+ * before it is rendered.
+ */
+public final class MessageFormatter {
+
+    static final char DELIM_START = '{';
+    static final String DELIM_STR = "{}";
+    private static final char ESCAPE_CHAR = '\\';
+
+    private static final Set<Class<?>> IMMUTABLE_TYPES = Set.of(String.class, Boolean.class, Character.class,
+            Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class,
+            BigDecimal.class, UUID.class, Class.class, Level.class, java.time.Instant.class,
+            java.time.LocalDate.class, java.time.LocalTime.class, java.time.LocalDateTime.class,
+            java.time.ZonedDateTime.class, java.time.OffsetDateTime.class, java.time.Duration.class);
+
+    private MessageFormatter() {
+    }
+
+    /**
+     * Returns the argument itself when it is known to be immutable, so it can
+     * be rendered later on another thread, or its text rendered now otherwise.
+     */
+    public static Object snapshot(Object arg) {
+        if (arg == null || IMMUTABLE_TYPES.contains(arg.getClass()) || arg instanceof Enum) {
+            return arg;
+        }
+        StringBuilder sb = new StringBuilder();
+        appendArgument(sb, arg);
+        return sb.toString();
+    }
+
+    public static String format(String pattern, Object... args) {
+        StringBuilder sb = new StringBuilder(pattern.length() + 50);
+        formatTo(sb, pattern, args, args.length);
+        return sb.toString();
+    }
+
+    /**
+     * Appends <code>pattern</code> to <code>sb</code>, replacing its anchors
+     * with the first <code>argCount</code> elements of <code>args</code>.
+     */
+    public static void formatTo(StringBuilder sb, String pattern, Object[] args, int argCount) {
+        if (pattern == null) {
+            sb.append((String) null);
+            return;
+        }
+        int i = 0;
+        int argIndex = 0;
+        while (argIndex < argCount) {
+            int j = pattern.indexOf(DELIM_STR, i);
+            if (j == -1) {
+                break;
+            }
+            if (j > 0 && pattern.charAt(j - 1) == ESCAPE_CHAR) {
+                if (j > 1 && pattern.charAt(j - 2) == ESCAPE_CHAR) {
+                    // the backslash is itself escaped, the anchor is not
+                    sb.append(pattern, i, j - 1);
+                    appendArgument(sb, args[argIndex++]);
+                } else {
+                    sb.append(pattern, i, j - 1).append(DELIM_START);
+                    j -= 1;
+                    i = j + 2;
+                    continue;
+                }
+            } else {
+                sb.append(pattern, i, j);
+                appendArgument(sb, args[argIndex++]);
+            }
+            i = j + 2;
+        }
+        sb.append(pattern, i, pattern.length());
+    }
+
+    private static void appendArgument(StringBuilder sb, Object arg) {
+        // the common boxed types are appended without going through toString()
+        if (arg instanceof String) {
+            sb.append((String) arg);
+        } else if (arg instanceof Integer) {
+            sb.append(((Integer) arg).intValue());
+        } else if (arg instanceof Long) {
+            sb.append(((Long) arg).longValue());
+        } else if (arg instanceof Boolean) {
+            sb.append(((Boolean) arg).booleanValue());
+        } else if (arg instanceof Character) {
+            sb.append(((Character) arg).charValue());
+        } else if (arg instanceof Double) {
+            sb.append(((Double) arg).doubleValue());
+        } else {
+            // the elements of an array can fail their toString() too
+            try {
+                if (arg instanceof Object[]) {
+                    sb.append(Arrays.deepToString((Object[]) arg));
+                } else if (arg != null && arg.getClass().isArray()) {
+                    appendPrimitiveArray(sb, arg);
+                } else {
+                    sb.append(arg);
+                }
+            } catch (RuntimeException e) {
+                sb.append("[FAILED toString()]");
+            }
+        }
+    }
+
+    private static void appendPrimitiveArray(StringBuilder sb, Object array) {
+        if (array instanceof int[]) {
+            sb.append(Arrays.toString((int[]) array));
+        } else if (array instanceof long[]) {
+            sb.append(Arrays.toString((long[]) array));
+        } else if (array instanceof byte[]) {
+            sb.append(Arrays.toString((byte[]) array));
+        } else if (array instanceof char[]) {
+            sb.append(Arrays.toString((char[]) array));
+        } else if (array instanceof short[]) {
+            sb.append(Arrays.toString((short[]) array));
+        } else if (array instanceof boolean[]) {
+            sb.append(Arrays.toString((boolean[]) array));
+        } else if (array instanceof float[]) {
+            sb.append(Arrays.toString((float[]) array));
+        } else {
+            sb.append(Arrays.toString((double[]) array));
+        }
+    }
+}
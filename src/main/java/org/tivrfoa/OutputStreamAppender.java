@@ -2,6 +2,14 @@ package org.tivrfoa;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class OutputStreamAppender extends UnsynchronizedAppenderBase {
@@ -18,6 +26,53 @@ public class OutputStreamAppender extends UnsynchronizedAppenderBase {
 
     boolean immediateFlush = true;
 
+    private FlushPolicy flushPolicy = FlushPolicy.perBatch();
+    private long unflushedBytes = 0;
+    private long lastFlushNanos = System.nanoTime();
+    private ScheduledFuture<?> flushTask;
+
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder flushCount = new LongAdder();
+    private final LongAdder ioFailureCount = new LongAdder();
+    private final LongAdder ioRecoveryCount = new LongAdder();
+
+    /**
+     * Batches are encoded into a chain of chunks of about this size, instead of
+     * one buffer that would have to grow and be copied.
+     */
+    static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * At most this many chunks are filled before they are written out, so that
+     * a huge batch does not hold on to unbounded memory.
+     */
+    static final int MAX_CHUNKS = 16;
+
+    private Encoder encoder = new PatternLayout();
+
+    /**
+     * The encode buffers, kept from one write to the next. Only touched while
+     * holding the lock.
+     */
+    private final List<EncodeBuffer> chunks = new ArrayList<>();
+
+    /**
+     * The encoding of the current batch shared with the other appenders of
+     * the same {@link AppenderAttachableImpl}, or null.
+     */
+    private EncodedBatch sharedEncoding;
+
+    /**
+     * Runs the periodic flushes of the appenders, such as the ones using an
+     * {@link FlushPolicy.Mode#INTERVAL} policy.
+     */
+    static class FlushScheduler {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OutputStreamAppender-Flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
     /**
     * The underlying output stream used by this appender.
     * 
@@ -41,16 +96,32 @@ public class OutputStreamAppender extends UnsynchronizedAppenderBase {
         // only error free appenders should be activated
         if (errors == 0) {
             super.start();
+            scheduleFlushTask();
         }
     }
 
     @Override
-    protected void append(String msg) {
+    protected void append(LogEvent event) {
         if (!isStarted()) {
             return;
         }
 
-        subAppend(msg);
+        subAppend(event);
+    }
+
+    @Override
+    protected void appendBatch(List<LogEvent> events) {
+        if (!isStarted()) {
+            return;
+        }
+
+        try {
+            writeOut(events);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            this.started = false;
+            System.err.println("IO failure in appender");
+        }
     }
 
     /**
@@ -63,6 +134,7 @@ public class OutputStreamAppender extends UnsynchronizedAppenderBase {
     public void stop() {
         lock.lock();
         try {
+            cancelFlushTask();
             closeOutputStream();
             super.stop();
         } finally {
@@ -100,31 +172,234 @@ public class OutputStreamAppender extends UnsynchronizedAppenderBase {
             // close any previously opened output stream
             closeOutputStream();
             this.outputStream = outputStream;
+            encoder.reset();
+            if (outputStream instanceof ResilientOutputStreamBase) {
+                ((ResilientOutputStreamBase) outputStream).setCounters(ioFailureCount, ioRecoveryCount);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void writeOut(LogEvent event) throws IOException {
+        boolean locked = lockWrite();
+        try {
+            EncodeBuffer chunk = chunk(0);
+            encoder.encode(event, chunk);
+            writeEncoded(chunks, 1);
+            if (immediateFlush) {
+                flush();
+            }
         } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Encodes the whole batch into the chunks and writes them together, then
+     * flushes according to the {@link FlushPolicy}.
+     */
+    protected void writeOut(List<LogEvent> events) throws IOException {
+        boolean locked = lockWrite();
+        try {
+            EncodedBatch shared = sharedEncoding;
+            if (shared != null && shared.isEncodingOf(events)) {
+                writeEncoded(shared.chunks(), shared.chunkCount());
+            } else {
+                int used = 0;
+                int index = 0;
+                EncodeBuffer chunk = chunk(0);
+                for (int i = 0; i < events.size(); i++) {
+                    LogEvent event = events.get(i);
+                    int found = shared == null ? -1 : shared.indexOf(event, index);
+                    if (found >= 0) {
+                        shared.copyEvent(found, chunk);
+                        index = found + 1;
+                    } else {
+                        encoder.encode(event, chunk);
+                    }
+                    if (chunk.length() >= CHUNK_SIZE) {
+                        if (++used == MAX_CHUNKS) {
+                            writeEncoded(chunks, used);
+                            used = 0;
+                        }
+                        chunk = chunk(used);
+                    }
+                }
+                if (chunk.length() > 0) {
+                    used++;
+                }
+                writeEncoded(chunks, used);
+            }
+            if (flushPolicy.shouldFlush(unflushedBytes, lastFlushNanos)) {
+                flush();
+            }
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Writes the first <code>count</code> buffers of <code>source</code>,
+     * already encoded elsewhere, then flushes according to the
+     * {@link FlushPolicy}. Used by the merge stage of
+     * {@link ShardedAsyncAppender}.
+     */
+    protected void writeEncodedBatch(List<EncodeBuffer> source, int count) throws IOException {
+        boolean locked = lockWrite();
+        try {
+            writeEncoded(source, count);
+            if (flushPolicy.shouldFlush(unflushedBytes, lastFlushNanos)) {
+                flush();
+            }
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Whether the writes can skip the lock: the appender is only written to
+     * by the worker of an async appender and it runs no flush task of its
+     * own beside it. Subclasses with other background tasks touching the
+     * output must add them.
+     */
+    protected boolean isLockFree() {
+        return isSingleWriter() && flushTask == null;
+    }
+
+    /**
+     * Takes the lock around a write, unless the appender is lock free.
+     *
+     * @return whether the lock was taken, to hand to
+     *         {@link #unlockWrite(boolean)}
+     */
+    protected final boolean lockWrite() {
+        if (isLockFree()) {
+            checkWriter();
+            return false;
+        }
+        lock.lock();
+        return true;
+    }
+
+    protected final void unlockWrite(boolean locked) {
+        if (locked) {
             lock.unlock();
         }
     }
 
-    protected void writeOut(String msg) throws IOException {
-        byte[] byteArray = msg.getBytes();
-        writeBytes(byteArray);
+    /**
+     * Returns the cleared chunk at <code>index</code>, allocating it the
+     * first time.
+     */
+    private EncodeBuffer chunk(int index) {
+        if (index == chunks.size()) {
+            chunks.add(new EncodeBuffer(index == 0 ? 1024 : CHUNK_SIZE, useDirectBuffers()));
+        }
+        EncodeBuffer chunk = chunks.get(index);
+        chunk.clear();
+        return chunk;
     }
 
-    private void writeBytes(byte[] byteArray) throws IOException {
-        if(byteArray == null || byteArray.length == 0)
+    /**
+     * Writes the first <code>count</code> buffers of <code>source</code>,
+     * either this appender's own chunks or a shared encoding.
+     */
+    private void writeEncoded(List<EncodeBuffer> source, int count) throws IOException {
+        long length = 0;
+        for (int i = 0; i < count; i++) {
+            length += source.get(i).length();
+        }
+        if (length == 0) {
             return;
-        
+        }
+        boolean locked = lockWrite();
+        try {
+            writeChunks(source, count);
+            unflushedBytes += length;
+            bytesWritten.add(length);
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    /**
+     * Writes the first <code>count</code> encode buffers, each holding
+     * <code>length()</code> bytes. Called while holding the lock. The buffers
+     * may be shared with the other appenders of a batch, so they must be left
+     * as they are.
+     * <p>
+     * Subclasses writing to a channel can override this method, together with
+     * {@link #useDirectBuffers()}, to write all the chunks with a single
+     * gathering write.
+     */
+    protected void writeChunks(List<EncodeBuffer> chunks, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            ByteBuffer bytes = chunks.get(i).buffer();
+            this.outputStream.write(bytes.array(), bytes.arrayOffset(), bytes.position());
+        }
+    }
+
+    /**
+     * Whether the encode buffers should be allocated outside of the heap.
+     * Only worth it when {@link #writeChunks(List, int)} hands them to a
+     * channel.
+     */
+    protected boolean useDirectBuffers() {
+        return false;
+    }
+
+    /**
+     * Flushes the output stream if anything was written since the last flush.
+     */
+    public void flush() throws IOException {
+        boolean locked = lockWrite();
+        try {
+            if (unflushedBytes > 0 && outputStream != null) {
+                outputStream.flush();
+                flushCount.increment();
+            }
+            unflushedBytes = 0;
+            lastFlushNanos = System.nanoTime();
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    private void flushIfDue() {
         lock.lock();
         try {
-            this.outputStream.write(byteArray);
-            if (immediateFlush) {
-                this.outputStream.flush();
+            if (isStarted() && flushPolicy.shouldFlush(unflushedBytes, lastFlushNanos)) {
+                flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to flush appender [" + name + "]");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void scheduleFlushTask() {
+        lock.lock();
+        try {
+            cancelFlushTask();
+            if (flushPolicy.getMode() == FlushPolicy.Mode.INTERVAL) {
+                long period = flushPolicy.getThreshold();
+                flushTask = FlushScheduler.INSTANCE.scheduleWithFixedDelay(this::flushIfDue, period, period,
+                        TimeUnit.MILLISECONDS);
             }
         } finally {
             lock.unlock();
         }
     }
 
+    private void cancelFlushTask() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+    }
+
     /**
      * Actual writing occurs here.
      * <p>
@@ -133,13 +408,12 @@ public class OutputStreamAppender extends UnsynchronizedAppenderBase {
      * 
      * @since 0.9.0
      */
-    protected void subAppend(String msg) {
+    protected void subAppend(LogEvent event) {
         if (!isStarted()) {
             return;
         }
         try {
-            byte[] byteArray = msg.getBytes();
-            writeBytes(byteArray);
+            writeOut(event);
 
         } catch (IOException ioe) {
             ioe.printStackTrace();
@@ -150,6 +424,64 @@ public class OutputStreamAppender extends UnsynchronizedAppenderBase {
         }
     }
 
+    /**
+     * Bytes handed to the output stream since the appender was created.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    /**
+     * Writes or flushes that failed, see {@link ResilientOutputStreamBase}.
+     */
+    public long getIoFailureCount() {
+        return ioFailureCount.sum();
+    }
+
+    /**
+     * Times the output stream recovered from a failure.
+     */
+    public long getIoRecoveryCount() {
+        return ioRecoveryCount.sum();
+    }
+
+    void setSharedEncoding(EncodedBatch sharedEncoding) {
+        this.sharedEncoding = sharedEncoding;
+    }
+
+    public Encoder getEncoder() {
+        return encoder;
+    }
+
+    public void setEncoder(Encoder encoder) {
+        lock.lock();
+        try {
+            this.encoder = encoder;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        lock.lock();
+        try {
+            this.flushPolicy = flushPolicy;
+            if (isStarted()) {
+                scheduleFlushTask();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public boolean isImmediateFlush() {
         return immediateFlush;
     }
@@ -0,0 +1,249 @@
+package org.tivrfoa;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An {@link Encoder} driven by a conversion pattern, e.g.
+ * <code>%d %level [%thread] %logger: %msg%n</code>.
+ * <p>
+ * The pattern is parsed once, when the layout is created, into an array of
+ * converters; encoding an event is then a walk over that array. Text is
+ * written as UTF-8.
+ * <p>
+ * Supported conversion words:
+ * <ul>
+ * <li><code>%d</code>, <code>%date</code>: the timestamp, optionally followed
+ * by a {@link TimestampFormatter} format in braces, e.g.
+ * <code>%d{ISO8601}</code></li>
+ * <li><code>%level</code>, <code>%le</code>, <code>%p</code></li>
+ * <li><code>%thread</code>, <code>%t</code>: the thread name, or
+ * <code>#</code> and the thread id for an unnamed thread such as a virtual
+ * thread</li>
+ * <li><code>%tid</code>: the thread id</li>
+ * <li><code>%logger</code>, <code>%lo</code>, <code>%c</code></li>
+ * <li><code>%msg</code>, <code>%message</code>, <code>%m</code>: the message,
+ * with its parameters substituted</li>
+ * <li><code>%n</code>: a line feed, <code>\n</code>, on every platform</li>
+ * <li><code>%%</code>: a percent sign</li>
+ * </ul>
+ */
+public class PatternLayout implements Encoder {
+
+    /**
+     * Produces the same lines the logger has always written.
+     */
+    public static final String DEFAULT_PATTERN = "%d %level [%thread] %logger: %msg%n";
+
+    private final String pattern;
+    private final Converter[] converters;
+
+    public PatternLayout() {
+        this(DEFAULT_PATTERN);
+    }
+
+    public PatternLayout(String pattern) {
+        this(pattern, TimestampFormatter.DEFAULT);
+    }
+
+    /**
+     * @param defaultTimestampFormat the format used by <code>%d</code> when it
+     *                               has no option
+     */
+    public PatternLayout(String pattern, String defaultTimestampFormat) {
+        this.pattern = pattern;
+        this.converters = compile(pattern, defaultTimestampFormat);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public void encode(LogEvent event, EncodeBuffer out) {
+        for (Converter converter : converters) {
+            converter.write(event, out);
+        }
+    }
+
+    /**
+     * Whether one of the timestamps in the pattern shows more than
+     * milliseconds.
+     */
+    public boolean isPrecise() {
+        for (Converter converter : converters) {
+            if (converter instanceof DateConverter && ((DateConverter) converter).formatter.isPrecise()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Converter[] compile(String pattern, String defaultTimestampFormat) {
+        List<Converter> converters = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        int length = pattern.length();
+        while (i < length) {
+            char c = pattern.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (i == length) {
+                throw new IllegalArgumentException("Pattern [" + pattern + "] ends with a dangling %");
+            }
+            if (pattern.charAt(i) == '%') {
+                literal.append('%');
+                i++;
+                continue;
+            }
+
+            int start = i;
+            while (i < length && Character.isLetter(pattern.charAt(i))) {
+                i++;
+            }
+            String keyword = pattern.substring(start, i);
+            String option = null;
+            if (i < length && pattern.charAt(i) == '{') {
+                int end = pattern.indexOf('}', i);
+                if (end == -1) {
+                    throw new IllegalArgumentException("Unclosed option in pattern [" + pattern + "]");
+                }
+                option = pattern.substring(i + 1, end);
+                i = end + 1;
+            }
+
+            if (keyword.equals("n")) {
+                literal.append('\n');
+                continue;
+            }
+            if (literal.length() > 0) {
+                converters.add(new LiteralConverter(literal.toString()));
+                literal.setLength(0);
+            }
+            converters.add(createConverter(keyword, option, defaultTimestampFormat, pattern));
+        }
+        if (literal.length() > 0) {
+            converters.add(new LiteralConverter(literal.toString()));
+        }
+        return converters.toArray(new Converter[0]);
+    }
+
+    private static Converter createConverter(String keyword, String option, String defaultTimestampFormat,
+            String pattern) {
+        return switch (keyword) {
+            case "d", "date" -> new DateConverter(option == null ? defaultTimestampFormat : option);
+            case "level", "le", "p" -> new LevelConverter();
+            case "thread", "t" -> new ThreadConverter();
+            case "tid" -> new ThreadIdConverter();
+            case "logger", "lo", "c" -> new LoggerConverter();
+            case "msg", "message", "m" -> new MessageConverter();
+            default -> throw new IllegalArgumentException(
+                    "Unknown conversion word [%" + keyword + "] in pattern [" + pattern + "]");
+        };
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + pattern + "]";
+    }
+
+    /**
+     * Writes one part of the line.
+     */
+    abstract static class Converter {
+        abstract void write(LogEvent event, EncodeBuffer out);
+    }
+
+    static final class LiteralConverter extends Converter {
+
+        private final byte[] bytes;
+
+        LiteralConverter(String text) {
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        void write(LogEvent event, EncodeBuffer out) {
+            out.put(bytes);
+        }
+    }
+
+    static final class DateConverter extends Converter {
+
+        final TimestampFormatter formatter;
+
+        DateConverter(String format) {
+            this.formatter = TimestampFormatter.forPattern(format);
+        }
+
+        @Override
+        void write(LogEvent event, EncodeBuffer out) {
+            int length = formatter.format(event.getEpochSecond(), event.getNanoOfSecond());
+            out.put(formatter.buffer(), 0, length);
+        }
+    }
+
+    static final class LevelConverter extends Converter {
+
+        private final byte[][] names;
+
+        LevelConverter() {
+            Level[] levels = Level.values();
+            names = new byte[levels.length][];
+            for (Level level : levels) {
+                names[level.ordinal()] = level.name().getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        @Override
+        void write(LogEvent event, EncodeBuffer out) {
+            out.put(names[event.getLevel().ordinal()]);
+        }
+    }
+
+    static final class ThreadConverter extends Converter {
+        @Override
+        void write(LogEvent event, EncodeBuffer out) {
+            String name = event.getThreadName();
+            if (name.isEmpty()) {
+                out.put((byte) '#');
+                out.putLong(event.getThreadId());
+            } else {
+                out.putUtf8(name);
+            }
+        }
+    }
+
+    static final class ThreadIdConverter extends Converter {
+        @Override
+        void write(LogEvent event, EncodeBuffer out) {
+            out.putLong(event.getThreadId());
+        }
+    }
+
+    static final class LoggerConverter extends Converter {
+        @Override
+        void write(LogEvent event, EncodeBuffer out) {
+            out.putUtf8(event.getLoggerName());
+        }
+    }
+
+    static final class MessageConverter extends Converter {
+
+        private final StringBuilder scratch = new StringBuilder(256);
+
+        @Override
+        void write(LogEvent event, EncodeBuffer out) {
+            if (event.getParameterCount() == 0) {
+                out.putUtf8(event.getMessage());
+                return;
+            }
+            scratch.setLength(0);
+            event.appendFormattedMessage(scratch);
+            out.putUtf8(scratch);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.tivrfoa;
+
+/**
+ * The queue implementation used by {@link AsyncAppenderBase}.
+ */
+public enum QueueType {
+    /**
+     * An {@link java.util.concurrent.ArrayBlockingQueue}, guarded by a single
+     * lock.
+     */
+    BLOCKING,
+    /**
+     * A lock-free {@link RingBuffer}.
+     */
+    RING_BUFFER
+}
@@ -1,17 +1,33 @@
 package org.tivrfoa;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
+/**
+ * A {@link ResilientOutputStreamBase} writing to a file.
+ * <p>
+ * When <code>buffered</code> is false the file is written through its
+ * {@link FileChannel}, with no {@link BufferedOutputStream} in between, which
+ * lets {@link #write(ByteBuffer[], int, int)} hand direct buffers to the
+ * kernel in a single gathering write.
+ */
 public class ResilientFileOutputStream extends ResilientOutputStreamBase {
 
     private File file;
     private FileOutputStream fos;
+    private final boolean buffered;
 
     public ResilientFileOutputStream(File file, boolean append, long bufferSize) throws FileNotFoundException {
+        this(file, append, bufferSize, true);
+    }
+
+    public ResilientFileOutputStream(File file, boolean append, long bufferSize, boolean buffered)
+            throws FileNotFoundException {
         this.file = file;
+        this.buffered = buffered;
         fos = new FileOutputStream(file, append);
-        this.os = new BufferedOutputStream(fos, (int) bufferSize);
+        this.os = buffered ? new BufferedOutputStream(fos, (int) bufferSize) : fos;
         this.presumedClean = true;
     }
 
@@ -22,6 +38,40 @@ public class ResilientFileOutputStream extends ResilientOutputStreamBase {
         return fos.getChannel();
     }
 
+    /**
+     * Writes the remaining bytes of the buffers with gathering writes on the
+     * file channel, with the same recovery behaviour as the other writes.
+     */
+    public void write(ByteBuffer[] srcs, int offset, int length) {
+        if (skipWhileInError()) {
+            return;
+        }
+
+        // Clear any current interrupt, it would close the channel (see LOGBACK-875)
+        boolean interrupted = Thread.interrupted();
+
+        try {
+            if (buffered) {
+                os.flush();
+            }
+            long remaining = 0;
+            for (int i = offset; i < offset + length; i++) {
+                remaining += srcs[i].remaining();
+            }
+            FileChannel channel = fos.getChannel();
+            while (remaining > 0) {
+                remaining -= channel.write(srcs, offset, length);
+            }
+            postSuccessfulWrite();
+        } catch (IOException e) {
+            postIOFailure(e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     public File getFile() {
         return file;
     }
@@ -35,7 +85,7 @@ public class ResilientFileOutputStream extends ResilientOutputStreamBase {
     OutputStream openNewOutputStream() throws IOException {
         // see LOGBACK-765
         fos = new FileOutputStream(file, true);
-        return new BufferedOutputStream(fos);
+        return buffered ? new BufferedOutputStream(fos) : fos;
     }
 
     @Override
@@ -2,6 +2,7 @@ package org.tivrfoa;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
 
 abstract public class ResilientOutputStreamBase extends OutputStream {
 
@@ -12,17 +13,39 @@ abstract public class ResilientOutputStreamBase extends OutputStream {
     protected OutputStream os;
     protected boolean presumedClean = true;
 
-    private boolean isPresumedInError() {
+    /**
+     * Counters of the owning appender, which outlive this stream.
+     */
+    private LongAdder failureCounter;
+    private LongAdder recoveryCounter;
+
+    void setCounters(LongAdder failureCounter, LongAdder recoveryCounter) {
+        this.failureCounter = failureCounter;
+        this.recoveryCounter = recoveryCounter;
+    }
+
+    boolean isPresumedInError() {
         // existence of recoveryCoordinator indicates failed state
         return (recoveryCoordinator != null && !presumedClean);
     }
 
-    public void write(byte b[], int off, int len) {
+    /**
+     * Returns true if the stream is presumed in error and the write should be
+     * skipped. Attempts a recovery if the last attempt was long enough ago.
+     */
+    protected boolean skipWhileInError() {
         if (isPresumedInError()) {
             if (!recoveryCoordinator.isTooSoon()) {
                 attemptRecovery();
             }
-            return; // return regardless of the success of the recovery attempt
+            return true; // skip regardless of the success of the recovery attempt
+        }
+        return false;
+    }
+
+    public void write(byte b[], int off, int len) {
+        if (skipWhileInError()) {
+            return;
         }
 
         try {
@@ -35,11 +58,8 @@ abstract public class ResilientOutputStreamBase extends OutputStream {
 
     @Override
     public void write(int b) {
-        if (isPresumedInError()) {
-            if (!recoveryCoordinator.isTooSoon()) {
-                attemptRecovery();
-            }
-            return; // return regardless of the success of the recovery attempt
+        if (skipWhileInError()) {
+            return;
         }
         try {
             os.write(b);
@@ -65,15 +85,21 @@ abstract public class ResilientOutputStreamBase extends OutputStream {
 
     abstract OutputStream openNewOutputStream() throws IOException;
 
-    private void postSuccessfulWrite() {
+    protected void postSuccessfulWrite() {
         if (recoveryCoordinator != null) {
             recoveryCoordinator = null;
+            if (recoveryCounter != null) {
+                recoveryCounter.increment();
+            }
             System.out.println("Recovered from IO failure on " + getDescription());
         }
     }
 
     public void postIOFailure(IOException e) {
         System.err.println("IO failure while writing to " + getDescription());
+        if (failureCounter != null) {
+            failureCounter.increment();
+        }
         presumedClean = false;
         if (recoveryCoordinator == null) {
             recoveryCoordinator = new RecoveryCoordinator();
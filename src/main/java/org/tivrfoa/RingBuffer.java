@@ -0,0 +1,278 @@
+package org.tivrfoa;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, lock-free, multi-producer/single-consumer {@link AsyncQueue}
+ * backed by a preallocated ring of slots, in the style of the LMAX Disruptor.
+ * <p>
+ * Producers claim a sequence with a CAS on the padded producer cursor, store
+ * their event in the matching slot and then mark the slot as published for
+ * the current lap around the ring. The consumer hands every contiguous
+ * published slot to its handler in one pass and only then moves its own
+ * padded sequence forward, which is what frees the slots for the producers.
+ * <p>
+ * The capacity is rounded up to a power of two so the slot index is a mask of
+ * the sequence.
+ * <p>
+ * When built with an event factory the slots are preallocated and never
+ * replaced: producers use {@link #next()}, {@link #get(long)} and
+ * {@link #publish(long)} to fill the slot's event in place, and the consumer
+ * must be done with the events handed out before it calls {@link #release()},
+ * since their slots are reused afterwards.
+ */
+public class RingBuffer<E> implements AsyncQueue<E> {
+
+    private static final VarHandle AVAILABLE = MethodHandles.arrayElementVarHandle(int[].class);
+    private static final VarHandle CONSUMED_CACHE;
+
+    static {
+        try {
+            CONSUMED_CACHE = MethodHandles.lookup().findVarHandle(RingBuffer.class, "consumedCache", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The longest a producer waiting for a free slot parks between two
+     * attempts.
+     */
+    static final long MAX_PRODUCER_PARK_NANOS = 100_000;
+
+    private final Object[] entries;
+    /**
+     * The lap number each slot was last published for.
+     */
+    private final int[] available;
+    private final int capacity;
+    private final int mask;
+    private final int indexShift;
+    private final WaitStrategy waitStrategy;
+    private final boolean preallocated;
+
+    /**
+     * Highest sequence claimed by a producer.
+     */
+    private final Sequence cursor = new Sequence(-1);
+    /**
+     * Highest sequence the consumer is done with, whose slot producers may
+     * reuse.
+     */
+    private final Sequence consumed = new Sequence(-1);
+    /**
+     * Highest sequence handed to the consumer's handler. Ahead of
+     * <code>consumed</code> until {@link #release()} when preallocated. Only
+     * touched by the consumer.
+     */
+    private long handedOut = -1;
+    /**
+     * Producers' cached copy of <code>consumed</code>, so they only read the
+     * consumer's cache line when the ring looks full. Written by any producer
+     * with opaque accesses, without ordering: racing producers may store an
+     * older value over a newer one, which only makes the cache lag behind
+     * <code>consumed</code>, never run ahead of it, so a producer at worst
+     * reads <code>consumed</code> again.
+     */
+    @SuppressWarnings("unused")
+    private long consumedCache = -1;
+
+    public RingBuffer(int requestedCapacity, WaitStrategy waitStrategy) {
+        this(requestedCapacity, waitStrategy, false);
+    }
+
+    public RingBuffer(int requestedCapacity, WaitStrategy waitStrategy, Supplier<E> eventFactory) {
+        this(requestedCapacity, waitStrategy, true);
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = eventFactory.get();
+        }
+    }
+
+    private RingBuffer(int requestedCapacity, WaitStrategy waitStrategy, boolean preallocated) {
+        if (requestedCapacity < 1 || requestedCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity [" + requestedCapacity + "]");
+        }
+        this.capacity = ceilingPowerOfTwo(requestedCapacity);
+        this.mask = capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(capacity);
+        this.entries = new Object[capacity];
+        this.available = new int[capacity];
+        Arrays.fill(available, -1);
+        this.waitStrategy = waitStrategy;
+        this.preallocated = preallocated;
+    }
+
+    static int ceilingPowerOfTwo(int value) {
+        return value == 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    @Override
+    public boolean offer(E event) {
+        checkNotPreallocated();
+        long sequence = tryNext();
+        if (sequence < 0) {
+            return false;
+        }
+        publish(sequence, event);
+        return true;
+    }
+
+    @Override
+    public void put(E event) throws InterruptedException {
+        checkNotPreallocated();
+        publish(next(), event);
+    }
+
+    /**
+     * Claims the next slot, waiting for the consumer to free one if the ring is
+     * full. The claimed slot must be published with {@link #publish(long)}.
+     */
+    public long next() throws InterruptedException {
+        long sequence;
+        long parkNanos = 1;
+        while ((sequence = tryNext()) < 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            // parking, not spinning, lets a virtual thread unmount; backing off
+            // keeps thousands of them from hammering the claim counter
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos << 1, MAX_PRODUCER_PARK_NANOS);
+        }
+        return sequence;
+    }
+
+    /**
+     * Claims the next slot if there is a free one.
+     *
+     * @return the claimed sequence, or -1 if the ring is full
+     */
+    public long tryNext() {
+        long current;
+        long next;
+        do {
+            current = cursor.get();
+            next = current + 1;
+            long wrapPoint = next - capacity;
+            if (wrapPoint > (long) CONSUMED_CACHE.getOpaque(this)) {
+                long lastConsumed = consumed.get();
+                CONSUMED_CACHE.setOpaque(this, lastConsumed);
+                if (wrapPoint > lastConsumed) {
+                    return -1;
+                }
+            }
+        } while (!cursor.compareAndSet(current, next));
+        return next;
+    }
+
+    private void checkNotPreallocated() {
+        if (preallocated) {
+            throw new UnsupportedOperationException("Slots of a preallocated ring buffer are filled in place");
+        }
+    }
+
+    private void publish(long sequence, E event) {
+        entries[(int) sequence & mask] = event;
+        publish(sequence);
+    }
+
+    /**
+     * Returns the event preallocated in the slot of a claimed sequence.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+
+    /**
+     * Makes a claimed slot visible to the consumer.
+     */
+    public void publish(long sequence) {
+        // the release store makes the writes to the slot visible to the consumer
+        AVAILABLE.setRelease(available, (int) sequence & mask, (int) (sequence >>> indexShift));
+        waitStrategy.signalAllWhenBlocking();
+    }
+
+    private boolean isPublished(long sequence) {
+        int lap = (int) AVAILABLE.getAcquire(available, (int) sequence & mask);
+        return lap == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * Returns the highest claimed sequence once <code>sequence</code> is
+     * published, <code>sequence - 1</code> before. For the
+     * {@link WaitStrategy}: the consumer then takes the slots from
+     * <code>sequence</code> up to the first one still being filled.
+     */
+    long highestPublished(long sequence) {
+        return isPublished(sequence) ? cursor.get() : sequence - 1;
+    }
+
+    @Override
+    public int drain(EventHandler<? super E> handler, int maxBatchSize) throws InterruptedException {
+        long next = handedOut + 1;
+        long highest = waitStrategy.waitFor(next, this);
+        return consume(handler, next, highest, maxBatchSize);
+    }
+
+    @Override
+    public int drainAvailable(EventHandler<? super E> handler, int maxBatchSize) {
+        long next = handedOut + 1;
+        long highest = cursor.get();
+        if (highest < next) {
+            return 0;
+        }
+        return consume(handler, next, highest, maxBatchSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int consume(EventHandler<? super E> handler, long next, long highest, int maxBatchSize) {
+        long limit = Math.min(highest, next + maxBatchSize - 1);
+        long last = next - 1;
+        // a claimed slot may not be published yet, stop at the first gap
+        while (last < limit && isPublished(last + 1)) {
+            last++;
+        }
+        for (long sequence = next; sequence <= last; sequence++) {
+            int index = (int) sequence & mask;
+            E event = (E) entries[index];
+            if (!preallocated) {
+                entries[index] = null;
+            }
+            handler.onEvent(event, sequence == last);
+        }
+        handedOut = last;
+        if (!preallocated) {
+            // the handler owns the events now
+            consumed.set(last);
+        }
+        return (int) (last - next + 1);
+    }
+
+    @Override
+    public void release() {
+        if (consumed.get() != handedOut) {
+            consumed.set(handedOut);
+        }
+    }
+
+    @Override
+    public int size() {
+        long lastConsumed = consumed.get();
+        return (int) Math.min(cursor.get() - lastConsumed, capacity);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+}
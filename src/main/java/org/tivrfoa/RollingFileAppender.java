@@ -0,0 +1,402 @@
+package org.tivrfoa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A {@link FileAppender} that moves the active file aside when it gets too
+ * big or when its time period ends.
+ * <p>
+ * The archives are named after <code>fileNamePattern</code>, see
+ * {@link FileNamePattern}. Rolling is triggered by time when the pattern has a
+ * <code>%d</code>, and by size when <code>maxFileSize</code> is set, in which
+ * case the pattern needs a <code>%i</code>.
+ * <p>
+ * A rollover is just a rename of the active file and the opening of a new
+ * one, done by the thread writing the batch, normally the async worker.
+ * Everything slow happens on a separate background thread, so the logging
+ * pipeline never waits for it: gzip compression, when the pattern ends with
+ * <code>.gz</code>, then the removal of the archives beyond
+ * <code>maxHistory</code> periods or <code>totalSizeCap</code> bytes.
+ * <p>
+ * Prudent mode is not supported.
+ */
+public class RollingFileAppender extends FileAppender {
+
+    private static final int MAX_COMPRESSION_WAIT_SECONDS = 30;
+
+    private FileNamePattern fileNamePattern;
+    private FileSize maxFileSize;
+    private FileSize totalSizeCap;
+    /**
+     * Number of periods (or of archives when the pattern has no date) to keep,
+     * 0 to keep everything.
+     */
+    private int maxHistory = 0;
+    private ZoneId zone = ZoneId.systemDefault();
+
+    private ZonedDateTime periodStart;
+    private long nextPeriodMillis = Long.MAX_VALUE;
+    private long currentSize;
+    /**
+     * The index to try first for the next archive of the current period.
+     */
+    private int nextIndex;
+
+    private ExecutorService archiver;
+
+    @Override
+    public void start() {
+        int errors = 0;
+        if (fileNamePattern == null) {
+            System.err.println("No fileNamePattern set for the appender named [" + name + "]");
+            errors++;
+        } else {
+            if (maxFileSize != null && !fileNamePattern.hasIndex()) {
+                System.err.println("Size based rolling needs %i in fileNamePattern [" + fileNamePattern + "]");
+                errors++;
+            }
+            if (maxFileSize == null && !fileNamePattern.hasDate()) {
+                System.err.println("fileNamePattern [" + fileNamePattern + "] has no %d and maxFileSize is not set");
+                errors++;
+            }
+        }
+        if (isPrudent()) {
+            System.err.println("Prudent mode is not supported by RollingFileAppender [" + name + "]");
+            errors++;
+        }
+        if (errors > 0) {
+            return;
+        }
+
+        archiver = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "RollingFileAppender-Archiver-" + getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (fileNamePattern.hasDate()) {
+            File file = new File(getFile());
+            long time = file.exists() ? file.lastModified() : System.currentTimeMillis();
+            startPeriod(ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), zone));
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        if (archiver != null) {
+            archiver.shutdown();
+            try {
+                if (!archiver.awaitTermination(MAX_COMPRESSION_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                    System.err.println("Timed out waiting for the archiving of [" + name + "] to finish");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            archiver = null;
+        }
+    }
+
+    @Override
+    public void openFile(String file_name) throws IOException {
+        lock.lock();
+        try {
+            super.openFile(file_name);
+            File file = new File(file_name);
+            currentSize = isAppend() ? file.length() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void startPeriod(ZonedDateTime time) {
+        periodStart = fileNamePattern.periodStart(time);
+        nextPeriodMillis = fileNamePattern.nextPeriodStart(periodStart).toInstant().toEpochMilli();
+        nextIndex = 0;
+    }
+
+    @Override
+    protected void writeOut(LogEvent event) throws IOException {
+        boolean locked = lockWrite();
+        try {
+            rolloverIfNeeded();
+            super.writeOut(event);
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    @Override
+    protected void writeOut(List<LogEvent> events) throws IOException {
+        boolean locked = lockWrite();
+        try {
+            rolloverIfNeeded();
+            super.writeOut(events);
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    @Override
+    protected void writeEncodedBatch(List<EncodeBuffer> source, int count) throws IOException {
+        boolean locked = lockWrite();
+        try {
+            rolloverIfNeeded();
+            super.writeEncodedBatch(source, count);
+        } finally {
+            unlockWrite(locked);
+        }
+    }
+
+    @Override
+    protected void writeChunks(List<EncodeBuffer> chunks, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            currentSize += chunks.get(i).length();
+        }
+        super.writeChunks(chunks, count);
+    }
+
+    private void rolloverIfNeeded() throws IOException {
+        long now = System.currentTimeMillis();
+        boolean periodEnded = now >= nextPeriodMillis;
+        if (periodEnded || (maxFileSize != null && currentSize >= maxFileSize.getSize())) {
+            rollover();
+            if (periodEnded) {
+                startPeriod(ZonedDateTime.ofInstant(Instant.ofEpochMilli(now), zone));
+            }
+        }
+    }
+
+    /**
+     * Renames the active file to its archive name and opens a new active file.
+     */
+    public void rollover() throws IOException {
+        lock.lock();
+        try {
+            closeOutputStream();
+
+            File active = new File(getFile());
+            File target = nextArchive();
+            File renamed = fileNamePattern.isCompressed() ? uncompressedName(target) : target;
+            FileUtil.createMissingParentDirectories(renamed);
+            try {
+                Files.move(active.toPath(), renamed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                System.err.println("Failed to rename [" + active + "] to [" + renamed + "], keep writing to it");
+                renamed = null;
+            }
+
+            boolean previousAppend = isAppend();
+            setAppend(renamed == null || previousAppend);
+            try {
+                openFile(getFile());
+            } finally {
+                setAppend(previousAppend);
+            }
+
+            if (renamed != null) {
+                submitArchiving(renamed, target);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The first archive name of the current period that is not taken yet.
+     */
+    private File nextArchive() {
+        int index = nextIndex;
+        while (true) {
+            File target = new File(fileNamePattern.convert(periodStart, index));
+            File uncompressed = fileNamePattern.isCompressed() ? uncompressedName(target) : target;
+            if (!target.exists() && !uncompressed.exists()) {
+                nextIndex = index + 1;
+                return target;
+            }
+            if (!fileNamePattern.hasIndex()) {
+                // nothing to tell them apart, the archive gets overwritten
+                return target;
+            }
+            index++;
+        }
+    }
+
+    private static File uncompressedName(File gzFile) {
+        String path = gzFile.getPath();
+        return new File(path.substring(0, path.length() - ".gz".length()));
+    }
+
+    private void submitArchiving(File renamed, File target) {
+        ExecutorService executor = archiver;
+        if (executor == null) {
+            return;
+        }
+        ZonedDateTime currentPeriod = periodStart;
+        executor.execute(() -> {
+            if (fileNamePattern.isCompressed()) {
+                compress(renamed, target);
+            }
+            removeOldArchives(currentPeriod);
+        });
+    }
+
+    private void compress(File source, File target) {
+        File tmp = new File(target.getPath() + ".tmp");
+        try (InputStream in = new FileInputStream(source);
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            System.err.println("Failed to compress [" + source + "]");
+            tmp.delete();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.delete(source.toPath());
+        } catch (IOException e) {
+            System.err.println("Failed to replace [" + source + "] by [" + target + "]");
+        }
+    }
+
+    private static final class Archive {
+        final File file;
+        final LocalDateTime period;
+        final int index;
+
+        Archive(File file, LocalDateTime period, int index) {
+            this.file = file;
+            this.period = period;
+            this.index = index;
+        }
+    }
+
+    private List<Archive> listArchives() {
+        // archives live in the directory of the pattern's first literal
+        File patternFile = new File(fileNamePattern.getPrefix() + "x");
+        String parent = patternFile.getParent();
+        List<Archive> archives = new ArrayList<>();
+        File[] files = patternFile.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) {
+            return archives;
+        }
+        for (File file : files) {
+            String path = parent == null ? file.getName() : new File(parent, file.getName()).getPath();
+            Matcher matcher = fileNamePattern.matchArchive(path);
+            if (matcher != null && file.isFile()) {
+                archives.add(new Archive(file, fileNamePattern.parsePeriod(matcher),
+                        fileNamePattern.parseIndex(matcher)));
+            }
+        }
+        return archives;
+    }
+
+    /**
+     * Applies <code>maxHistory</code>, then <code>totalSizeCap</code>. Runs on
+     * the archiver thread.
+     */
+    private void removeOldArchives(ZonedDateTime currentPeriod) {
+        if (maxHistory <= 0 && totalSizeCap == null) {
+            return;
+        }
+        List<Archive> archives = listArchives();
+        // newest first
+        archives.sort(Comparator.comparing((Archive a) -> a.period, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparingInt(a -> a.index)
+                .thenComparingLong(a -> a.file.lastModified()).reversed());
+
+        List<Archive> kept = new ArrayList<>();
+        if (maxHistory > 0 && fileNamePattern.hasDate()) {
+            LocalDateTime oldestKept = currentPeriod.toLocalDateTime().minus(maxHistory, fileNamePattern.getPeriodUnit());
+            for (Archive archive : archives) {
+                if (archive.period != null && archive.period.isBefore(oldestKept)) {
+                    delete(archive.file);
+                } else {
+                    kept.add(archive);
+                }
+            }
+        } else if (maxHistory > 0) {
+            for (int i = 0; i < archives.size(); i++) {
+                if (i < maxHistory) {
+                    kept.add(archives.get(i));
+                } else {
+                    delete(archives.get(i).file);
+                }
+            }
+        } else {
+            kept.addAll(archives);
+        }
+
+        if (totalSizeCap != null) {
+            long total = 0;
+            for (Archive archive : kept) {
+                total += archive.file.length();
+                if (total > totalSizeCap.getSize()) {
+                    delete(archive.file);
+                }
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            System.err.println("Failed to delete archive [" + file + "]");
+        }
+    }
+
+    public String getFileNamePattern() {
+        return fileNamePattern == null ? null : fileNamePattern.toString();
+    }
+
+    public void setFileNamePattern(String fileNamePattern) {
+        this.fileNamePattern = new FileNamePattern(fileNamePattern);
+    }
+
+    public FileSize getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public void setMaxFileSize(FileSize maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public FileSize getTotalSizeCap() {
+        return totalSizeCap;
+    }
+
+    public void setTotalSizeCap(FileSize totalSizeCap) {
+        this.totalSizeCap = totalSizeCap;
+    }
+
+    public int getMaxHistory() {
+        return maxHistory;
+    }
+
+    public void setMaxHistory(int maxHistory) {
+        this.maxHistory = maxHistory;
+    }
+
+    public void setZone(ZoneId zone) {
+        this.zone = zone;
+    }
+}
@@ -0,0 +1,726 @@
+package org.tivrfoa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * An async appender striped over several {@link AsyncAppenderBase} shards,
+ * each with its own queue and worker thread, so that encoding is no longer
+ * capped by a single core.
+ * <p>
+ * A caller always goes to the same shard, picked from its thread id, so the
+ * events of one thread keep their order. The settings of this appender (queue
+ * size, discarding threshold, ...) apply to each shard.
+ * <p>
+ * The output goes one of two ways:
+ * <ul>
+ * <li>{@link Output#MERGED}: each shard encodes its batches into segments
+ * with its own {@link Encoder}, and a merge thread interleaves the segments
+ * by timestamp into the single {@link OutputStreamAppender} attached to this
+ * appender. While a shard has nothing for it, the merger holds the other
+ * events back for up to {@link #MERGE_LINGER_NANOS}, in case an older one is
+ * on its way through that shard, so the order is exact unless an event takes
+ * longer than that to reach the merger.</li>
+ * <li>{@link Output#PER_SHARD}: each shard writes to its own appenders,
+ * created by {@link #setShardAppenderFactory(IntFunction)}, usually one file
+ * per shard. Nothing is shared between the shards.</li>
+ * </ul>
+ */
+public class ShardedAsyncAppender extends AsyncAppenderBase {
+
+    public enum Output {
+        MERGED, PER_SHARD
+    }
+
+    public static final int DEFAULT_SHARD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * How many segments each shard can have waiting for the merger before
+     * its worker blocks.
+     */
+    static final int SEGMENTS_PER_SHARD = 4;
+
+    /**
+     * How long the merger parks when no shard has anything for it.
+     */
+    static final long IDLE_PARK_NANOS = 10_000_000;
+
+    /**
+     * How long the merger holds an event back while a shard has nothing for
+     * it, measured from the timestamp of the event.
+     */
+    static final long MERGE_LINGER_NANOS = 5_000_000;
+
+    int shardCount = DEFAULT_SHARD_COUNT;
+    Output output = Output.MERGED;
+    private Supplier<Encoder> encoderFactory = PatternLayout::new;
+    private IntFunction<? extends UnsynchronizedAppenderBase> shardAppenderFactory;
+
+    AsyncAppenderBase[] shards;
+    private Merger merger;
+    private final AppenderMetrics shardedMetrics = new ShardedMetrics();
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        if (shardCount < 1) {
+            System.err.println("Invalid shard count [" + shardCount + "]");
+            return;
+        }
+        OutputStreamAppender target = null;
+        if (output == Output.MERGED) {
+            target = mergeTarget();
+            if (target == null) {
+                return;
+            }
+        } else if (shardAppenderFactory == null) {
+            System.err.println("No shard appender factory set for the appender named [" + getName() + "].");
+            return;
+        }
+
+        AsyncAppenderBase[] newShards = new AsyncAppenderBase[shardCount];
+        if (output == Output.MERGED) {
+            merger = new Merger(target, shardCount);
+        }
+        for (int i = 0; i < shardCount; i++) {
+            AsyncAppenderBase shard = output == Output.MERGED ? new MergedShard() : new AsyncAppenderBase();
+            shard.setName(getName() + "#" + i);
+            shard.queueType = queueType;
+            shard.queueSize = queueSize;
+            shard.waitStrategy = waitStrategy;
+            shard.neverBlock = neverBlock;
+            shard.discardingThreshold = discardingThreshold;
+            shard.discardReportInterval = discardReportInterval;
+            shard.garbageFree = garbageFree;
+            shard.maxFlushTime = maxFlushTime;
+            shard.maxBatchSize = maxBatchSize;
+            shard.maxBatchDelay = maxBatchDelay;
+            shard.targetLatency = targetLatency;
+            // the merger forces the merged output on stop
+            shard.forceOnStop = forceOnStop && output == Output.PER_SHARD;
+            shard.virtualWorker = virtualWorker;
+            if (output == Output.MERGED) {
+                shard.addAppender(new ShardEncoder(i, encoderFactory.get()));
+            } else {
+                shard.addAppender(shardAppenderFactory.apply(i));
+            }
+            newShards[i] = shard;
+        }
+        if (merger != null) {
+            merger.start();
+        }
+        for (AsyncAppenderBase shard : newShards) {
+            shard.start();
+        }
+        shards = newShards;
+        stopping = false;
+        started = true;
+    }
+
+    /**
+     * Returns the single output stream appender the merged output goes to,
+     * or null after printing why there is none.
+     */
+    private OutputStreamAppender mergeTarget() {
+        List<UnsynchronizedAppenderBase> appenders = getAppenders();
+        if (appenders.size() != 1 || !(appenders.get(0) instanceof OutputStreamAppender)) {
+            System.err.println("The merged output of the appender named [" + getName()
+                    + "] needs exactly one attached OutputStreamAppender.");
+            return null;
+        }
+        return (OutputStreamAppender) appenders.get(0);
+    }
+
+    /**
+     * Stops the shards, which write what they hold, then the merger, which
+     * writes the rest and stops the attached appender: it is the only thread
+     * writing to it.
+     */
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        // the shards fence their callers off and count the lost events
+        stopping = true;
+        started = false;
+        for (AsyncAppenderBase shard : shards) {
+            shard.stop();
+        }
+        if (merger != null) {
+            merger.finish();
+            merger = null;
+        }
+    }
+
+    @Override
+    void setReplaced(boolean replaced) {
+        super.setReplaced(replaced);
+        AsyncAppenderBase[] current = shards;
+        if (current != null) {
+            for (AsyncAppenderBase shard : current) {
+                shard.setReplaced(replaced);
+            }
+        }
+    }
+
+    private AsyncAppenderBase shard() {
+        AsyncAppenderBase[] current = shards;
+        return current[(int) (Thread.currentThread().getId() % current.length)];
+    }
+
+    @Override
+    LogEvent claim(Level level) {
+        if (!isStarted() && !stopping) {
+            return null;
+        }
+        return shard().claim(level);
+    }
+
+    @Override
+    void publish(LogEvent event) {
+        // the caller that claimed the event, so the same shard
+        shard().publish(event);
+    }
+
+    @Override
+    protected void append(LogEvent event) {
+        shard().append(event);
+    }
+
+    /**
+     * Syncs the shard of the calling thread. With {@link Output#MERGED}, the
+     * worker of the shard hands the request on to the merger once the events
+     * before it are encoded, and the merger writes every event it holds, then
+     * forces the merged output.
+     */
+    @Override
+    public boolean sync() {
+        if (!isStarted()) {
+            return false;
+        }
+        return shard().sync();
+    }
+
+    /**
+     * Returns the counters of all the shards summed, plus the IO counters of
+     * the merged output. The metrics of each shard are available from
+     * {@link #getShards()}.
+     */
+    @Override
+    public AppenderMetrics getMetrics() {
+        return shardedMetrics;
+    }
+
+    /**
+     * Returns the shards, to read their metrics, or null if this appender was
+     * never started.
+     */
+    public List<AsyncAppenderBase> getShards() {
+        return shards == null ? null : Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    @Override
+    public int getNumberOfElementsInQueue() {
+        int sum = 0;
+        for (AsyncAppenderBase shard : shards) {
+            sum += shard.getNumberOfElementsInQueue();
+        }
+        return sum;
+    }
+
+    @Override
+    public int getRemainingCapacity() {
+        int sum = 0;
+        for (AsyncAppenderBase shard : shards) {
+            sum += shard.getRemainingCapacity();
+        }
+        return sum;
+    }
+
+    @Override
+    public int getTargetBatchSize() {
+        int sum = 0;
+        for (AsyncAppenderBase shard : shards) {
+            sum += shard.getTargetBatchSize();
+        }
+        return sum;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public void setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    public Output getOutput() {
+        return output;
+    }
+
+    public void setOutput(Output output) {
+        this.output = output;
+    }
+
+    /**
+     * Sets where the {@link Output#MERGED} shards get their encoders from.
+     * Encoders keep scratch state, so each shard needs its own.
+     */
+    public void setEncoderFactory(Supplier<Encoder> encoderFactory) {
+        this.encoderFactory = encoderFactory;
+    }
+
+    /**
+     * Sets what creates the appender of each shard in
+     * {@link Output#PER_SHARD} mode, given the shard index. The appenders
+     * must be started.
+     */
+    public void setShardAppenderFactory(IntFunction<? extends UnsynchronizedAppenderBase> shardAppenderFactory) {
+        this.shardAppenderFactory = shardAppenderFactory;
+    }
+
+    /**
+     * Returns <code>fileName</code> with <code>-shard</code> inserted before
+     * the extension of its last path element, e.g. <code>logs/app-2.log</code>.
+     * Also works on a rolling file name pattern.
+     */
+    public static String shardFileName(String fileName, int shard) {
+        int start = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1;
+        int end = start;
+        while (end < fileName.length() && fileName.charAt(end) != '.' && fileName.charAt(end) != '%') {
+            end++;
+        }
+        return fileName.substring(0, end) + "-" + shard + fileName.substring(end);
+    }
+
+    /**
+     * A {@link Output#MERGED} shard: its only appender is a
+     * {@link ShardEncoder}, the file is forced by the merger.
+     */
+    private class MergedShard extends AsyncAppenderBase {
+
+        @Override
+        boolean syncFiles() {
+            Merger m = merger;
+            return m != null && m.sync(maxFlushTime);
+        }
+    }
+
+    /**
+     * Sums the metrics of the shards to those of this appender, which only
+     * counts the IO of the merged output.
+     */
+    private class ShardedMetrics extends AppenderMetrics {
+
+        ShardedMetrics() {
+            super(ShardedAsyncAppender.this);
+        }
+
+        private long sum(long own, ToLongFunction<AppenderMetrics> counter) {
+            AsyncAppenderBase[] current = shards;
+            if (current != null) {
+                for (AsyncAppenderBase shard : current) {
+                    own += counter.applyAsLong(shard.getMetrics());
+                }
+            }
+            return own;
+        }
+
+        private Histogram sum(Histogram own, Function<AppenderMetrics, Histogram> histogram) {
+            Histogram sum = new Histogram();
+            sum.add(own);
+            AsyncAppenderBase[] current = shards;
+            if (current != null) {
+                for (AsyncAppenderBase shard : current) {
+                    sum.add(histogram.apply(shard.getMetrics()));
+                }
+            }
+            return sum;
+        }
+
+        @Override
+        public long getEnqueuedCount(Level level) {
+            return sum(super.getEnqueuedCount(level), m -> m.getEnqueuedCount(level));
+        }
+
+        @Override
+        public long getDiscardedCount(Level level) {
+            return sum(super.getDiscardedCount(level), m -> m.getDiscardedCount(level));
+        }
+
+        @Override
+        public long getWrittenCount(Level level) {
+            return sum(super.getWrittenCount(level), m -> m.getWrittenCount(level));
+        }
+
+        @Override
+        public long getLostCount(Level level) {
+            return sum(super.getLostCount(level), m -> m.getLostCount(level));
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return sum(super.getBytesWritten(), AppenderMetrics::getBytesWritten);
+        }
+
+        @Override
+        public long getFlushCount() {
+            return sum(super.getFlushCount(), AppenderMetrics::getFlushCount);
+        }
+
+        @Override
+        public long getSyncCount() {
+            return sum(super.getSyncCount(), AppenderMetrics::getSyncCount);
+        }
+
+        @Override
+        public long getBlockedCount() {
+            return sum(super.getBlockedCount(), AppenderMetrics::getBlockedCount);
+        }
+
+        @Override
+        public long getBlockedTimeNanos() {
+            return sum(super.getBlockedTimeNanos(), AppenderMetrics::getBlockedTimeNanos);
+        }
+
+        @Override
+        public long getIoFailureCount() {
+            return sum(super.getIoFailureCount(), AppenderMetrics::getIoFailureCount);
+        }
+
+        @Override
+        public long getIoRecoveryCount() {
+            return sum(super.getIoRecoveryCount(), AppenderMetrics::getIoRecoveryCount);
+        }
+
+        @Override
+        public Histogram getBatchSizeHistogram() {
+            return sum(super.getBatchSizeHistogram(), AppenderMetrics::getBatchSizeHistogram);
+        }
+
+        @Override
+        public Histogram getLatencyHistogram() {
+            return sum(super.getLatencyHistogram(), AppenderMetrics::getLatencyHistogram);
+        }
+    }
+
+    /**
+     * The encoded events of one batch of a shard, in the order they were
+     * drained, with the timestamp and end offset of each.
+     */
+    static final class Segment {
+
+        final EncodeBuffer bytes = new EncodeBuffer(OutputStreamAppender.CHUNK_SIZE);
+        long[] timestamps = new long[256];
+        int[] ends = new int[256];
+        int size;
+        int next;
+
+        void clear() {
+            bytes.clear();
+            size = 0;
+            next = 0;
+        }
+
+        void add(long timestamp, int end) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            timestamps[size] = timestamp;
+            ends[size] = end;
+            size++;
+        }
+    }
+
+    /**
+     * The appender of a {@link Output#MERGED} shard: encodes each batch into
+     * a segment and hands it to the merger.
+     */
+    private class ShardEncoder extends UnsynchronizedAppenderBase {
+
+        private final int shard;
+        private final Encoder encoder;
+
+        ShardEncoder(int shard, Encoder encoder) {
+            this.shard = shard;
+            this.encoder = encoder;
+            this.name = ShardedAsyncAppender.this.getName() + "#" + shard + "-encoder";
+            this.started = true;
+        }
+
+        @Override
+        protected void append(LogEvent event) {
+            appendBatch(Collections.singletonList(event));
+        }
+
+        @Override
+        protected void appendBatch(List<LogEvent> events) {
+            Merger m = merger;
+            Segment segment = takeUninterruptibly(m.free[shard]);
+            segment.clear();
+            for (int i = 0; i < events.size(); i++) {
+                LogEvent event = events.get(i);
+                encoder.encode(event, segment.bytes);
+                segment.add(event.getEpochSecond() * 1_000_000_000L + event.getNanoOfSecond(), segment.bytes.length());
+            }
+            putUninterruptibly(m.full[shard], segment);
+            LockSupport.unpark(m);
+        }
+    }
+
+    /**
+     * Interleaves the segments of the shards by timestamp and writes them to
+     * the target appender.
+     */
+    private final class Merger extends Thread {
+
+        final BlockingQueue<Segment>[] free;
+        final BlockingQueue<Segment>[] full;
+        private final Segment[] current;
+        private final OutputStreamAppender target;
+        private final List<EncodeBuffer> chunks = new ArrayList<>();
+        private EncodeBuffer chunk;
+        private int used;
+        private volatile boolean closing;
+        private volatile boolean closed;
+        private boolean failed;
+        private final Queue<SyncRequest> syncRequests = new ConcurrentLinkedQueue<>();
+        private final List<SyncRequest> syncing = new ArrayList<>();
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Merger(OutputStreamAppender target, int shardCount) {
+            this.target = target;
+            this.free = new BlockingQueue[shardCount];
+            this.full = new BlockingQueue[shardCount];
+            this.current = new Segment[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                free[i] = new ArrayBlockingQueue<>(SEGMENTS_PER_SHARD);
+                full[i] = new ArrayBlockingQueue<>(SEGMENTS_PER_SHARD);
+                for (int j = 0; j < SEGMENTS_PER_SHARD; j++) {
+                    free[i].add(new Segment());
+                }
+            }
+            chunk = chunk(0);
+            setDaemon(true);
+            setName("AsyncAppender-Merger-" + target.getName());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    boolean last = closing;
+                    // taken before the segments, which were handed off before the requests
+                    for (SyncRequest request; (request = syncRequests.poll()) != null;) {
+                        syncing.add(request);
+                    }
+                    refill();
+                    boolean held = merge(last || !syncing.isEmpty());
+                    writeOut();
+                    completeSyncRequests();
+                    if (last) {
+                        break;
+                    }
+                    // the shards unpark the merger when they hand it a segment
+                    LockSupport.parkNanos(this, held ? MERGE_LINGER_NANOS : IDLE_PARK_NANOS);
+                }
+                if (forceOnStop) {
+                    syncFiles();
+                }
+            } finally {
+                closed = true;
+                for (SyncRequest request; (request = syncRequests.poll()) != null;) {
+                    syncing.add(request);
+                }
+                for (SyncRequest request : syncing) {
+                    request.complete(false);
+                }
+                syncing.clear();
+                aai.stopAllAppenders();
+            }
+        }
+
+        /**
+         * Called by the worker of a shard: waits until the merger wrote the
+         * segments that shard handed it so far, and everything else it held,
+         * then forced the merged output.
+         */
+        boolean sync(long timeoutMillis) {
+            if (closed) {
+                return false;
+            }
+            SyncRequest request = new SyncRequest();
+            syncRequests.add(request);
+            if (closed && syncRequests.remove(request)) {
+                return false;
+            }
+            LockSupport.unpark(this);
+            return request.await(timeoutMillis);
+        }
+
+        private void completeSyncRequests() {
+            if (syncing.isEmpty()) {
+                return;
+            }
+            boolean synced = syncFiles();
+            for (SyncRequest request : syncing) {
+                request.complete(synced);
+            }
+            syncing.clear();
+        }
+
+        /**
+         * Gives each shard that has none its next segment, if there is one.
+         */
+        private void refill() {
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == null) {
+                    current[i] = full[i].poll();
+                }
+            }
+        }
+
+        /**
+         * Copies out the oldest head event, as long as no other shard can
+         * still bring an older one: every shard has a segment, the event
+         * lingered long enough, or <code>all</code> is set.
+         *
+         * @return whether events are held back
+         */
+        private boolean merge(boolean all) {
+            long horizon = System.currentTimeMillis() * 1_000_000L - MERGE_LINGER_NANOS;
+            while (true) {
+                int oldest = -1;
+                long oldestTimestamp = 0;
+                boolean everyShard = true;
+                for (int i = 0; i < current.length; i++) {
+                    Segment segment = current[i];
+                    if (segment == null) {
+                        everyShard = false;
+                    } else if (oldest == -1 || segment.timestamps[segment.next] < oldestTimestamp) {
+                        oldest = i;
+                        oldestTimestamp = segment.timestamps[segment.next];
+                    }
+                }
+                if (oldest == -1) {
+                    return false;
+                }
+                if (!everyShard && !all && oldestTimestamp > horizon) {
+                    return true;
+                }
+                Segment segment = current[oldest];
+                int start = segment.next == 0 ? 0 : segment.ends[segment.next - 1];
+                chunk.put(segment.bytes.buffer(), start, segment.ends[segment.next] - start);
+                if (chunk.length() >= OutputStreamAppender.CHUNK_SIZE) {
+                    if (++used == OutputStreamAppender.MAX_CHUNKS) {
+                        write(used);
+                        used = 0;
+                    }
+                    chunk = chunk(used);
+                }
+                if (++segment.next == segment.size) {
+                    free[oldest].offer(segment);
+                    current[oldest] = full[oldest].poll();
+                }
+            }
+        }
+
+        private EncodeBuffer chunk(int index) {
+            if (index == chunks.size()) {
+                chunks.add(new EncodeBuffer(OutputStreamAppender.CHUNK_SIZE, target.useDirectBuffers()));
+            }
+            EncodeBuffer c = chunks.get(index);
+            c.clear();
+            return c;
+        }
+
+        private void writeOut() {
+            write(used + (chunk.length() > 0 ? 1 : 0));
+            used = 0;
+            chunk = chunk(0);
+        }
+
+        private void write(int count) {
+            if (count > 0 && target.isStarted()) {
+                try {
+                    target.writeEncodedBatch(chunks, count);
+                } catch (IOException e) {
+                    if (!failed) {
+                        failed = true;
+                        System.err.println("IO failure in appender [" + target.getName() + "]: " + e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes what is left once the shards have stopped, then exits.
+         */
+        void finish() {
+            closing = true;
+            LockSupport.unpark(this);
+            boolean interrupted = false;
+            while (isAlive()) {
+                try {
+                    join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static <E> E takeUninterruptibly(BlockingQueue<E> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static <E> void putUninterruptibly(BlockingQueue<E> queue, E element) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    queue.put(element);
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
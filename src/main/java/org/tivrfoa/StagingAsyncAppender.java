@@ -0,0 +1,594 @@
+package org.tivrfoa;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * An async appender where each calling thread encodes its events into a
+ * buffer of its own, handed to the worker as a whole instead of one queue
+ * operation per event.
+ * <p>
+ * A buffer is handed off when it holds {@link #setStagingBufferSize(FileSize)
+ * stagingBufferSize} bytes, right away when the event is a WARN or an ERROR,
+ * and by the worker once its oldest event waited
+ * {@link #setLingerMillis(long) lingerMillis}, so that the events of an idle
+ * thread still come out. A WARN or an ERROR also makes the worker collect
+ * the buffers of the other threads, so that the lines around it are written
+ * with it. {@link #stop()} collects every buffer.
+ * <p>
+ * Ordering: the events of one thread are written in the order they were
+ * logged. Across threads, the buffers the worker gets at a time are written
+ * in the order they got their first event, so the global order is only
+ * approximated, within about the linger time.
+ * <p>
+ * The trade-offs: messages are formatted on the calling thread, each thread
+ * holds a buffer and an encoder (not meant for many short-lived virtual
+ * threads), and the output goes to the single {@link OutputStreamAppender}
+ * attached, with one gathering write per round when it writes through a
+ * <code>FileChannel</code>. The queue size is counted in buffers.
+ */
+public class StagingAsyncAppender extends AsyncAppenderBase {
+
+    public static final FileSize DEFAULT_STAGING_BUFFER_SIZE = new FileSize(16 * FileSize.KB_COEFFICIENT);
+    public static final long DEFAULT_LINGER_MILLIS = 100;
+
+    private FileSize stagingBufferSize = DEFAULT_STAGING_BUFFER_SIZE;
+    private long lingerMillis = DEFAULT_LINGER_MILLIS;
+    private Supplier<Encoder> encoderFactory = PatternLayout::new;
+
+    private OutputStreamAppender target;
+    private ArrayBlockingQueue<Block> handoff;
+    private final ConcurrentLinkedQueue<Block> freeBlocks = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Stager> stagers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Stager> currentStager = ThreadLocal.withInitial(this::newStager);
+    /**
+     * Numbers the blocks as they get their first event, the blocks of one
+     * thread are numbered in order, unlike their wall-clock timestamps.
+     */
+    private final AtomicLong blockSequence = new AtomicLong();
+
+    /**
+     * Set by a WARN or an ERROR, asks the worker to collect every buffer.
+     */
+    private volatile boolean collectAll;
+    /**
+     * Set by {@link #stop()} once every buffer is handed off, the worker then
+     * exits when it has written them.
+     */
+    private volatile boolean handedOffForStop;
+
+    @Override
+    public void start() {
+        if (isStarted()) {
+            return;
+        }
+        List<UnsynchronizedAppenderBase> appenders = getAppenders();
+        if (appenders.size() != 1 || !(appenders.get(0) instanceof OutputStreamAppender)) {
+            System.err.println("The appender named [" + getName() + "] needs exactly one attached OutputStreamAppender.");
+            return;
+        }
+        if (queueSize < 1) {
+            System.err.println("Invalid queue size [" + queueSize + "]");
+            return;
+        }
+        target = (OutputStreamAppender) appenders.get(0);
+        handoff = new ArrayBlockingQueue<>(queueSize);
+        if (discardingThreshold == UNDEFINED) {
+            discardingThreshold = queueSize / 5;
+        }
+        stopping = false;
+        handedOffForStop = false;
+        workerThread = newWorkerThread("AsyncAppender-Worker-" + getName(), new StagingWorker());
+        started = true;
+        workerThread.start();
+    }
+
+    /**
+     * Collects the buffers of every thread, then lets the worker write them
+     * and stop the attached appender.
+     */
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        stopping = true;
+        started = false;
+        // the buffers are collected once the callers already encoding are done
+        if (!awaitInFlight(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxFlushTime), () -> { })) {
+            System.err.println("Some callers of [" + getName() + "] did not finish encoding within "
+                    + maxFlushTime + " ms, their events may be lost.");
+        }
+        for (Stager stager : stagers) {
+            stager.lock.lock();
+            try {
+                if (stager.block != null && stager.block.events > 0) {
+                    handOff(stager.block);
+                }
+                stager.block = null;
+            } finally {
+                stager.lock.unlock();
+            }
+        }
+        handedOffForStop = true;
+        workerThread.interrupt();
+
+        InterruptUtil interruptUtil = new InterruptUtil();
+        try {
+            interruptUtil.maskInterruptFlag();
+            workerThread.join(maxFlushTime);
+            if (workerThread.isAlive()) {
+                System.out.println("Max queue flush timeout (" + maxFlushTime + " ms) exceeded. Approximately "
+                        + handoff.size() + " staged buffers were possibly discarded.");
+            } else {
+                System.out.println("Queue flush finished successfully within timeout.");
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Failed to join worker thread. " + handoff.size() + " staged buffers may be discarded.");
+        } finally {
+            interruptUtil.unmaskInterruptFlag();
+        }
+        reportLost();
+    }
+
+    private Stager newStager() {
+        Stager stager = new Stager(encoderFactory.get());
+        stagers.add(stager);
+        return stager;
+    }
+
+    /**
+     * Returns the event of the calling thread, reused from one call to the
+     * next since it is encoded as soon as it is published.
+     */
+    @Override
+    LogEvent claim(Level level) {
+        if (!isStarted() && !stopping) {
+            return null;
+        }
+        if (!enter(level)) {
+            return null;
+        }
+        if (isDiscardable(level) && isQueueBelowDiscardingThreshold()) {
+            inFlight.decrement();
+            metrics.discarded[level.ordinal()].increment();
+            return null;
+        }
+        Stager stager = currentStager.get();
+        if (stager.claimed) {
+            // logging while building the previous event, e.g. from a toString()
+            return new LogEvent();
+        }
+        stager.claimed = true;
+        return stager.event;
+    }
+
+    @Override
+    void publish(LogEvent event) {
+        Stager stager = currentStager.get();
+        Level level = event.getLevel();
+        boolean urgent = level.levelInt >= Level.WARN_INT;
+        stager.lock.lock();
+        try {
+            Block block = stager.block;
+            if (block == null) {
+                block = stager.block = newBlock();
+            }
+            if (block.events == 0) {
+                block.sequence = blockSequence.getAndIncrement();
+                block.firstTimestamp = event.getEpochSecond() * 1_000_000_000L + event.getNanoOfSecond();
+                block.firstMillis = System.currentTimeMillis();
+            }
+            stager.encoder.encode(event, block.bytes);
+            block.events++;
+            block.byLevel[level.ordinal()]++;
+            metrics.enqueued[level.ordinal()].increment();
+            if (urgent || block.bytes.length() >= stagingBufferSize.getSize()) {
+                // handed off under the lock so that a sweep cannot overtake it
+                stager.block = null;
+                handOff(block);
+            }
+        } finally {
+            stager.lock.unlock();
+            if (event == stager.event) {
+                stager.claimed = false;
+            }
+            inFlight.decrement();
+        }
+        if (urgent) {
+            collectAll = true;
+        }
+    }
+
+    /**
+     * Hands off the buffer of the calling thread, followed by a marker block
+     * carrying the request. The worker completes the request once it wrote
+     * the round the marker came with, which holds the buffer unless an
+     * earlier round did.
+     */
+    @Override
+    public boolean sync() {
+        if (!isStarted()) {
+            return false;
+        }
+        SyncRequest request = new SyncRequest();
+        inFlight.increment();
+        try {
+            if (stopping) {
+                return false;
+            }
+            Stager stager = currentStager.get();
+            stager.lock.lock();
+            try {
+                Block block = stager.block;
+                if (block != null && block.events > 0) {
+                    stager.block = null;
+                    handOff(block);
+                }
+            } finally {
+                stager.lock.unlock();
+            }
+            Block marker = new Block(0);
+            marker.syncRequest = request;
+            // never dropped, even with neverBlock
+            putUninterruptibly(marker);
+        } finally {
+            inFlight.decrement();
+        }
+        return request.await(maxFlushTime);
+    }
+
+    @Override
+    protected void append(LogEvent event) {
+        LogEvent slot = claim(event.getLevel());
+        if (slot != null) {
+            slot.copyFrom(event);
+            publish(slot);
+        }
+    }
+
+    private Block newBlock() {
+        Block block = freeBlocks.poll();
+        if (block == null) {
+            block = new Block((int) Math.min(stagingBufferSize.getSize() + 1024, Integer.MAX_VALUE - 8));
+        }
+        return block;
+    }
+
+    private void handOff(Block block) {
+        if (handoff.offer(block)) {
+            return;
+        }
+        if (neverBlock) {
+            for (int i = 0; i < block.byLevel.length; i++) {
+                metrics.discarded[i].add(block.byLevel[i]);
+            }
+            recycle(block);
+            return;
+        }
+        long start = System.nanoTime();
+        putUninterruptibly(block);
+        metrics.blocked(System.nanoTime() - start);
+    }
+
+    private void putUninterruptibly(Block block) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                handoff.put(block);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Counts the events of a block that will never be written as lost, or
+     * fails the request of a marker.
+     */
+    private void discard(Block block) {
+        if (block.syncRequest != null) {
+            block.syncRequest.complete(false);
+            return;
+        }
+        for (int i = 0; i < block.byLevel.length; i++) {
+            metrics.lost[i].add(block.byLevel[i]);
+        }
+        recycle(block);
+    }
+
+    private void recycle(Block block) {
+        block.clear();
+        freeBlocks.offer(block);
+    }
+
+    /**
+     * Returns the number of buffers waiting for the worker.
+     */
+    @Override
+    public int getNumberOfElementsInQueue() {
+        return handoff.size();
+    }
+
+    @Override
+    public int getRemainingCapacity() {
+        return handoff.remainingCapacity();
+    }
+
+    public FileSize getStagingBufferSize() {
+        return stagingBufferSize;
+    }
+
+    /**
+     * Sets how many bytes a thread encodes before handing its buffer off.
+     */
+    public void setStagingBufferSize(FileSize stagingBufferSize) {
+        this.stagingBufferSize = stagingBufferSize;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * Sets how long an event can wait in the buffer of its thread before the
+     * worker collects it.
+     */
+    public void setLingerMillis(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Sets where each calling thread gets its encoder from. Encoders keep
+     * scratch state, so each thread needs its own.
+     */
+    public void setEncoderFactory(Supplier<Encoder> encoderFactory) {
+        this.encoderFactory = encoderFactory;
+    }
+
+    /**
+     * The encoded events of one thread, or a marker for a {@link #sync()}
+     * request.
+     */
+    static final class Block {
+
+        final EncodeBuffer bytes;
+        final int[] byLevel = new int[Level.values().length];
+        int events;
+        long sequence;
+        long firstTimestamp;
+        long firstMillis;
+        SyncRequest syncRequest;
+
+        Block(int capacity) {
+            bytes = new EncodeBuffer(capacity);
+        }
+
+        void clear() {
+            bytes.clear();
+            events = 0;
+            for (int i = 0; i < byLevel.length; i++) {
+                byLevel[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * The state of one calling thread. The lock is only contended when the
+     * worker collects the buffer, so it costs an uncontended CAS per event.
+     */
+    static final class Stager {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final Encoder encoder;
+        final LogEvent event = new LogEvent();
+        final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        Block block;
+        boolean claimed;
+
+        Stager(Encoder encoder) {
+            this.encoder = encoder;
+        }
+
+        boolean isOwnerGone() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+    private static final Comparator<Block> BY_SEQUENCE = Comparator.comparingLong(b -> b.sequence);
+
+    class StagingWorker implements Runnable {
+
+        private final List<Block> round = new ArrayList<>();
+        private final List<EncodeBuffer> buffers = new ArrayList<>();
+        /**
+         * The {@link #sync()} callers waiting for the current round.
+         */
+        private final List<SyncRequest> syncRequests = new ArrayList<>();
+        private final long[] writtenByLevel = new long[metrics.written.length];
+        private long lastSweepMillis = System.currentTimeMillis();
+
+        @Override
+        public void run() {
+            boolean finished = false;
+            try {
+                process();
+                finished = true;
+            } finally {
+                if (!finished) {
+                    died();
+                }
+                for (SyncRequest request : syncRequests) {
+                    request.complete(false);
+                }
+                syncRequests.clear();
+            }
+        }
+
+        private void process() {
+            while (!handedOffForStop || !handoff.isEmpty()) {
+                try {
+                    Block block = handoff.poll(Math.max(1, lingerMillis / 2), TimeUnit.MILLISECONDS);
+                    if (block != null) {
+                        round.add(block);
+                        handoff.drainTo(round);
+                    }
+                } catch (InterruptedException e) {
+                    // stop() interrupts once everything is handed off
+                }
+                long now = System.currentTimeMillis();
+                if (!handedOffForStop && (collectAll || now - lastSweepMillis >= lingerMillis / 2)) {
+                    sweep(now, collectAll);
+                    lastSweepMillis = now;
+                    // a block handed off before the sweep took a newer one of the same thread
+                    handoff.drainTo(round);
+                }
+                write();
+            }
+            write();
+            if (forceOnStop) {
+                syncFiles();
+            }
+            target.stop();
+        }
+
+        /**
+         * Called when an error escaped {@link #process()}: the appender is
+         * marked stopped, the callers are fenced off, and the blocks handed off
+         * meanwhile are discarded, counted as lost, so that no caller stays
+         * blocked on the full handoff queue.
+         */
+        private void died() {
+            stopping = true;
+            started = false;
+            System.err.println("The worker of [" + getName() + "] died, the appender is stopped and the events it holds are lost.");
+            round.forEach(StagingAsyncAppender.this::discard);
+            round.clear();
+            buffers.clear();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxFlushTime);
+            if (!awaitInFlight(deadline, this::discardHandedOff)) {
+                System.err.println("Some callers of [" + getName() + "] did not finish encoding within "
+                        + maxFlushTime + " ms.");
+            }
+            discardHandedOff();
+            reportLost();
+        }
+
+        private void discardHandedOff() {
+            Block block;
+            while ((block = handoff.poll()) != null) {
+                discard(block);
+            }
+        }
+
+        /**
+         * Takes the buffers that waited long enough, or all of them, without
+         * waiting for a thread that is logging.
+         */
+        private void sweep(long now, boolean all) {
+            collectAll = false;
+            for (Stager stager : stagers) {
+                if (!stager.lock.tryLock()) {
+                    continue;
+                }
+                try {
+                    Block block = stager.block;
+                    if (block != null && block.events > 0 && (all || now - block.firstMillis >= lingerMillis)) {
+                        stager.block = null;
+                        round.add(block);
+                    }
+                    if (stager.block == null && stager.isOwnerGone()) {
+                        stagers.remove(stager);
+                    }
+                } finally {
+                    stager.lock.unlock();
+                }
+            }
+        }
+
+        private void write() {
+            if (round.isEmpty()) {
+                return;
+            }
+            takeSyncRequests();
+            writeRound();
+            if (!syncRequests.isEmpty()) {
+                boolean synced = syncFiles();
+                for (SyncRequest request : syncRequests) {
+                    request.complete(synced);
+                }
+                syncRequests.clear();
+            }
+        }
+
+        /**
+         * Moves the requests of the markers in the round to
+         * {@link #syncRequests}.
+         */
+        private void takeSyncRequests() {
+            for (int i = round.size() - 1; i >= 0; i--) {
+                Block block = round.get(i);
+                if (block.syncRequest != null) {
+                    syncRequests.add(block.syncRequest);
+                    round.remove(i);
+                }
+            }
+        }
+
+        private void writeRound() {
+            if (round.isEmpty()) {
+                return;
+            }
+            round.sort(BY_SEQUENCE);
+            int events = 0;
+            for (Block block : round) {
+                buffers.add(block.bytes);
+                events += block.events;
+                for (int i = 0; i < writtenByLevel.length; i++) {
+                    writtenByLevel[i] += block.byLevel[i];
+                }
+            }
+            try {
+                if (target.isStarted()) {
+                    target.writeEncodedBatch(buffers, buffers.size());
+                    for (int i = 0; i < writtenByLevel.length; i++) {
+                        metrics.written[i].add(writtenByLevel[i]);
+                    }
+                    metrics.batchSizes.record(events);
+                    // the blocks keep only the timestamp of their oldest event
+                    Instant now = Instant.now();
+                    long nowMicros = now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+                    for (Block block : round) {
+                        metrics.latencyMicros.record(nowMicros - block.firstTimestamp / 1000);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("IO failure in appender [" + target.getName() + "]: " + e);
+            } finally {
+                for (int i = 0; i < writtenByLevel.length; i++) {
+                    writtenByLevel[i] = 0;
+                }
+                buffers.clear();
+                for (Block block : round) {
+                    recycle(block);
+                }
+                round.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.tivrfoa;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a {@link FileAppender} forces what it wrote to the storage
+ * device, see {@link FileAppender#sync()}. Flushing only hands the bytes to
+ * the OS, which loses them if the machine goes down before writing them back.
+ * <p>
+ * Accepted values for the <code>sync-policy</code> property:
+ * <ul>
+ * <li><code>NONE</code>: never, leave write back to the OS</li>
+ * <li><code>BATCH</code>: once at the end of every batch</li>
+ * <li><code>EVENTS:&lt;n&gt;</code>: once at least that many events were
+ * written since the last sync, e.g. <code>EVENTS:1000</code></li>
+ * <li><code>INTERVAL:&lt;millis&gt;</code>: at most every that many
+ * milliseconds, e.g. <code>INTERVAL:100</code>. A background task syncs
+ * what is left once the interval expires, even if no more events come.</li>
+ * </ul>
+ * A sync covers every event written before it, so one <code>force()</code>
+ * is shared by the whole batch, or the whole interval.
+ */
+public final class SyncPolicy {
+
+    public enum Mode {
+        NONE, BATCH, EVENTS, INTERVAL
+    }
+
+    private final Mode mode;
+    private final long threshold;
+
+    private SyncPolicy(Mode mode, long threshold) {
+        this.mode = mode;
+        this.threshold = threshold;
+    }
+
+    public static SyncPolicy none() {
+        return new SyncPolicy(Mode.NONE, 0);
+    }
+
+    public static SyncPolicy perBatch() {
+        return new SyncPolicy(Mode.BATCH, 0);
+    }
+
+    public static SyncPolicy everyEvents(long events) {
+        return new SyncPolicy(Mode.EVENTS, events);
+    }
+
+    public static SyncPolicy everyMillis(long millis) {
+        return new SyncPolicy(Mode.INTERVAL, millis);
+    }
+
+    public static SyncPolicy valueOf(String value) {
+        String[] parts = value.trim().split(":", 2);
+        Mode mode = Mode.valueOf(parts[0].trim().toUpperCase());
+        return switch (mode) {
+            case NONE -> none();
+            case BATCH -> perBatch();
+            case EVENTS -> everyEvents(Long.parseLong(argument(parts, value)));
+            case INTERVAL -> everyMillis(Long.parseLong(argument(parts, value)));
+        };
+    }
+
+    private static String argument(String[] parts, String value) {
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Sync policy [" + value + "] is missing its threshold");
+        }
+        return parts[1].trim();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Events for {@link Mode#EVENTS}, milliseconds for {@link Mode#INTERVAL}.
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Called after a batch was written.
+     *
+     * @param unsyncedEvents events written since the last sync, or -1 if the
+     *                       batch was already encoded and its events were not
+     *                       counted: {@link Mode#EVENTS} then syncs every batch
+     * @param lastSyncNanos  <code>System.nanoTime()</code> of the last sync
+     */
+    public boolean shouldSync(long unsyncedEvents, long lastSyncNanos) {
+        if (unsyncedEvents == 0) {
+            return false;
+        }
+        return switch (mode) {
+            case NONE -> false;
+            case BATCH -> true;
+            case EVENTS -> unsyncedEvents < 0 || unsyncedEvents >= threshold;
+            case INTERVAL -> System.nanoTime() - lastSyncNanos >= TimeUnit.MILLISECONDS.toNanos(threshold);
+        };
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.NONE || mode == Mode.BATCH ? mode.name() : mode + ":" + threshold;
+    }
+}
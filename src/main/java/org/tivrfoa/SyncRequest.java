@@ -0,0 +1,53 @@
+package org.tivrfoa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A caller of {@link AsyncAppenderBase#sync()} waiting for the worker to
+ * force the events it logged before to the storage device.
+ */
+final class SyncRequest {
+
+    private static final int PENDING = 0;
+    private static final int SYNCED = 1;
+    private static final int FAILED = 2;
+
+    private final Thread waiter = Thread.currentThread();
+    private volatile int state = PENDING;
+
+    /**
+     * Called by the worker once the files are forced, or failed to be.
+     */
+    void complete(boolean synced) {
+        state = synced ? SYNCED : FAILED;
+        LockSupport.unpark(waiter);
+    }
+
+    /**
+     * Parks the caller until the worker completes the request, or for up to
+     * <code>timeoutMillis</code>, in case the worker died or is stuck. An
+     * interrupt does not cut the wait short, the event is on its way anyway,
+     * but is kept for the caller.
+     *
+     * @return whether the files were forced, false on timeout
+     */
+    boolean await(long timeoutMillis) {
+        boolean interrupted = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (state == PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return state == SYNCED;
+    }
+}
@@ -0,0 +1,23 @@
+package org.tivrfoa;
+
+/**
+ * Denies the events below a level and is neutral about the others, e.g. an
+ * ERROR threshold for a file that only gets errors.
+ */
+public class ThresholdFilter implements Filter {
+
+    private final Level level;
+
+    public ThresholdFilter(Level level) {
+        this.level = level;
+    }
+
+    @Override
+    public FilterReply decide(LogEvent event) {
+        return level.equalOrAbove(event.getLevel()) ? FilterReply.NEUTRAL : FilterReply.DENY;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+}
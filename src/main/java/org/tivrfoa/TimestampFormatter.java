@@ -0,0 +1,294 @@
+package org.tivrfoa;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+
+/**
+ * Renders event timestamps as ASCII bytes.
+ * <p>
+ * The expensive part of a date, everything down to the minute plus the zone,
+ * only changes once a minute, so it is rendered once into the scratch buffer
+ * and kept there. Each call then only writes the seconds and the fraction
+ * digits after it. Instances are not thread safe; the appender uses them
+ * while holding its lock.
+ * <p>
+ * Available formats, selected with the <code>timestamp-format</code>
+ * property:
+ * <ul>
+ * <li><code>DEFAULT</code>: same text as <code>ZonedDateTime.toString()</code>,
+ * e.g. <code>2022-01-10T09:02:54.315218183-03:00[America/Sao_Paulo]</code></li>
+ * <li><code>ISO8601</code>: milliseconds and offset, e.g.
+ * <code>2022-01-10T09:02:54.315-03:00</code></li>
+ * <li><code>EPOCH_MILLIS</code>: milliseconds since the epoch</li>
+ * <li>anything else is a {@link DateTimeFormatter} pattern</li>
+ * </ul>
+ */
+public abstract class TimestampFormatter {
+
+    public static final String DEFAULT = "DEFAULT";
+    public static final String ISO8601 = "ISO8601";
+    public static final String EPOCH_MILLIS = "EPOCH_MILLIS";
+
+    protected byte[] buffer = new byte[64];
+
+    /**
+     * Renders the timestamp into {@link #buffer()}.
+     *
+     * @return the number of bytes written, starting at index 0
+     */
+    public abstract int format(long epochSecond, long nanoOfSecond);
+
+    /**
+     * The bytes written by the last call to {@link #format(long, long)}.
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Whether this format shows more than milliseconds, in which case events
+     * must capture a nano precision timestamp instead of
+     * <code>System.currentTimeMillis()</code>.
+     */
+    public abstract boolean isPrecise();
+
+    public static TimestampFormatter forPattern(String pattern) {
+        return forPattern(pattern, ZoneId.systemDefault());
+    }
+
+    public static TimestampFormatter forPattern(String pattern, ZoneId zone) {
+        return switch (pattern.trim()) {
+            case DEFAULT -> new Zoned(zone, true);
+            case ISO8601 -> new Zoned(zone, false);
+            case EPOCH_MILLIS -> new EpochMillis();
+            default -> new Custom(pattern, zone);
+        };
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            byte[] bigger = new byte[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, bigger, 0, buffer.length);
+            buffer = bigger;
+        }
+    }
+
+    static int putTwoDigits(byte[] dest, int pos, int value) {
+        dest[pos] = (byte) ('0' + value / 10);
+        dest[pos + 1] = (byte) ('0' + value % 10);
+        return pos + 2;
+    }
+
+    /**
+     * Writes the <code>digits</code> lowest decimal digits of value, zero
+     * padded.
+     */
+    static int putDigits(byte[] dest, int pos, long value, int digits) {
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            dest[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    /**
+     * The <code>DEFAULT</code> and <code>ISO8601</code> formats, which only
+     * differ in how the seconds, the fraction and the zone are shown.
+     */
+    static final class Zoned extends TimestampFormatter {
+
+        private final ZoneId zone;
+        /**
+         * Mimic <code>ZonedDateTime.toString()</code>: omit zero seconds and
+         * fractions, show 3, 6 or 9 fraction digits and the zone id.
+         */
+        private final boolean zonedDateTimeText;
+
+        /*
+         * The prefix in buffer is valid for epoch seconds in
+         * [validFrom, validUntil), all within the local minute starting at
+         * minuteStart and with the same offset.
+         */
+        private long minuteStart;
+        private long validFrom = 1;
+        private long validUntil = 0;
+        private int prefixLength;
+        private byte[] suffix;
+
+        Zoned(ZoneId zone, boolean zonedDateTimeText) {
+            this.zone = zone;
+            this.zonedDateTimeText = zonedDateTimeText;
+        }
+
+        @Override
+        public boolean isPrecise() {
+            return zonedDateTimeText;
+        }
+
+        @Override
+        public int format(long epochSecond, long nanoOfSecond) {
+            if (epochSecond < validFrom || epochSecond >= validUntil) {
+                renderPrefix(epochSecond);
+            }
+            ensureCapacity(prefixLength + 13 + suffix.length);
+            byte[] dest = buffer;
+            int pos = prefixLength;
+            int second = (int) (epochSecond - minuteStart);
+            int nano = (int) nanoOfSecond;
+
+            if (zonedDateTimeText) {
+                if (second > 0 || nano > 0) {
+                    dest[pos++] = ':';
+                    pos = putTwoDigits(dest, pos, second);
+                    if (nano > 0) {
+                        dest[pos++] = '.';
+                        if (nano % 1000_000 == 0) {
+                            pos = putDigits(dest, pos, nano / 1000_000, 3);
+                        } else if (nano % 1000 == 0) {
+                            pos = putDigits(dest, pos, nano / 1000, 6);
+                        } else {
+                            pos = putDigits(dest, pos, nano, 9);
+                        }
+                    }
+                }
+            } else {
+                dest[pos++] = ':';
+                pos = putTwoDigits(dest, pos, second);
+                dest[pos++] = '.';
+                pos = putDigits(dest, pos, nano / 1000_000, 3);
+            }
+
+            System.arraycopy(suffix, 0, dest, pos, suffix.length);
+            return pos + suffix.length;
+        }
+
+        private void renderPrefix(long epochSecond) {
+            Instant instant = Instant.ofEpochSecond(epochSecond);
+            ZonedDateTime dateTime = ZonedDateTime.ofInstant(instant, zone);
+            ZoneOffset offset = dateTime.getOffset();
+
+            minuteStart = epochSecond - dateTime.getSecond();
+            validFrom = minuteStart;
+            validUntil = minuteStart + 60;
+            ZoneOffsetTransition previous = zone.getRules().previousTransition(instant.plusSeconds(1));
+            if (previous != null && previous.toEpochSecond() > validFrom) {
+                validFrom = previous.toEpochSecond();
+            }
+            ZoneOffsetTransition next = zone.getRules().nextTransition(instant);
+            if (next != null && next.toEpochSecond() < validUntil) {
+                validUntil = next.toEpochSecond();
+            }
+
+            // LocalDate.toString() takes care of years outside 0000-9999
+            byte[] date = dateTime.toLocalDate().toString().getBytes(StandardCharsets.US_ASCII);
+            ensureCapacity(date.length + 6);
+            System.arraycopy(date, 0, buffer, 0, date.length);
+            int pos = date.length;
+            buffer[pos++] = 'T';
+            pos = putTwoDigits(buffer, pos, dateTime.getHour());
+            buffer[pos++] = ':';
+            pos = putTwoDigits(buffer, pos, dateTime.getMinute());
+            prefixLength = pos;
+
+            String suffixText = offset.getId();
+            if (zonedDateTimeText && !offset.equals(zone)) {
+                suffixText += "[" + zone + "]";
+            }
+            suffix = suffixText.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    static final class EpochMillis extends TimestampFormatter {
+
+        @Override
+        public boolean isPrecise() {
+            return false;
+        }
+
+        @Override
+        public int format(long epochSecond, long nanoOfSecond) {
+            long millis = epochSecond * 1000 + nanoOfSecond / 1000_000;
+            if (millis < 0) {
+                byte[] text = Long.toString(millis).getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(text, 0, buffer, 0, text.length);
+                return text.length;
+            }
+            int digits = 1;
+            for (long v = millis; v >= 10; v /= 10) {
+                digits++;
+            }
+            return putDigits(buffer, 0, millis, digits);
+        }
+    }
+
+    /**
+     * A {@link DateTimeFormatter} pattern. The rendered text is cached and only
+     * reformatted when the timestamp changes at the precision the pattern
+     * shows.
+     */
+    static final class Custom extends TimestampFormatter {
+
+        private final DateTimeFormatter formatter;
+        private final long truncation;
+        private final StringBuilder text = new StringBuilder(64);
+        private long cachedSecond = Long.MIN_VALUE;
+        private long cachedNano = -1;
+        private int length;
+
+        Custom(String pattern, ZoneId zone) {
+            this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(zone);
+            this.truncation = truncation(pattern);
+        }
+
+        /**
+         * The unit, in nanoseconds, of the smallest field shown by the pattern.
+         * Letters inside quotes are not fields but are counted anyway, which
+         * only makes the cache less effective.
+         */
+        private static long truncation(String pattern) {
+            if (pattern.indexOf('n') >= 0 || pattern.indexOf('N') >= 0) {
+                return 1;
+            }
+            int fractionDigits = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                if (pattern.charAt(i) == 'S') {
+                    fractionDigits++;
+                }
+            }
+            if (fractionDigits == 0 && pattern.indexOf('A') >= 0) {
+                fractionDigits = 3;
+            }
+            long unit = 1000_000_000L;
+            for (int i = 0; i < fractionDigits && unit > 1; i++) {
+                unit /= 10;
+            }
+            return unit;
+        }
+
+        @Override
+        public boolean isPrecise() {
+            return truncation < 1000_000;
+        }
+
+        @Override
+        public int format(long epochSecond, long nanoOfSecond) {
+            long nano = nanoOfSecond - nanoOfSecond % truncation;
+            if (epochSecond != cachedSecond || nano != cachedNano) {
+                text.setLength(0);
+                formatter.formatTo(Instant.ofEpochSecond(epochSecond, nano), text);
+                byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+                length = bytes.length;
+                cachedSecond = epochSecond;
+                cachedNano = nano;
+            }
+            return length;
+        }
+    }
+}
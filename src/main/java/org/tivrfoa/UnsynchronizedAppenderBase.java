@@ -1,10 +1,41 @@
 package org.tivrfoa;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 abstract public class UnsynchronizedAppenderBase {
 
     protected boolean started = false;
     private ThreadLocal<Boolean> guard = new ThreadLocal<Boolean>();
     protected String name;
+    private final CopyOnWriteArrayList<Filter> filters = new CopyOnWriteArrayList<>();
+    /**
+     * The events of a batch that went through the filters. Reused, as batches
+     * only come from the single async worker.
+     */
+    private final List<LogEvent> filteredBatch = new ArrayList<>();
+
+    /**
+     * The async appender whose worker is the only thread writing to this
+     * appender, see {@link #claimSingleWriter(Object)}.
+     */
+    private Object singleWriterOwner;
+    private boolean singleWriter;
+    private boolean sharedWriters;
+    /**
+     * The thread that wrote first, remembered by {@link #checkWriter()}.
+     */
+    private Thread writer;
+
+    /**
+     * Whether single-writer appenders check that they are always called from
+     * the same thread, to catch an appender fed by something else than its
+     * worker. Set by {@link LoggerContext} from its configuration, read
+     * without synchronization: a change only needs to become visible
+     * eventually.
+     */
+    static boolean checkSingleWriter = LogConfig.INITIAL.isCheckSingleWriter();
 
     public String getName() {
         return name;
@@ -15,7 +46,14 @@ abstract public class UnsynchronizedAppenderBase {
 
     static final int ALLOWED_REPEATS = 3;
 
-    public void doAppend(String msg) {
+    public void doAppend(LogEvent event) {
+        if (singleWriter) {
+            // only the worker calls in, there is no re-entry to guard against
+            checkWriter();
+            filterAndAppend(event);
+            return;
+        }
+
         // WARNING: The guard check MUST be the first statement in the
         // doAppend() method.
 
@@ -26,7 +64,14 @@ abstract public class UnsynchronizedAppenderBase {
 
         try {
             guard.set(Boolean.TRUE);
+            filterAndAppend(event);
+        } finally {
+            guard.set(Boolean.FALSE);
+        }
+    }
 
+    private void filterAndAppend(LogEvent event) {
+        try {
             if (!this.started) {
                 if (statusRepeatCount++ < ALLOWED_REPEATS) {
                     System.out.println("Attempted to append to non started appender [" + name + "].");
@@ -34,18 +79,166 @@ abstract public class UnsynchronizedAppenderBase {
                 return;
             }
 
-            this.append(msg);
+            if (getFilterChainDecision(event) == FilterReply.DENY) {
+                return;
+            }
+
+            this.append(event);
         } catch (Exception e) {
             e.printStackTrace();
             if (exceptionCount++ < ALLOWED_REPEATS) {
                 System.err.println("Appender [" + name + "] failed to append.");
             }
+        }
+    }
+
+    /**
+     * Appends a whole batch of events, paying for the re-entry guard and the
+     * started check only once.
+     */
+    public void doAppendBatch(List<LogEvent> events) {
+        if (singleWriter) {
+            checkWriter();
+            filterAndAppendBatch(events);
+            return;
+        }
+
+        // prevent re-entry.
+        if (Boolean.TRUE.equals(guard.get())) {
+            return;
+        }
+
+        try {
+            guard.set(Boolean.TRUE);
+            filterAndAppendBatch(events);
         } finally {
             guard.set(Boolean.FALSE);
         }
     }
 
-    abstract protected void append(String msg);
+    private void filterAndAppendBatch(List<LogEvent> events) {
+        try {
+            if (!this.started) {
+                if (statusRepeatCount++ < ALLOWED_REPEATS) {
+                    System.out.println("Attempted to append to non started appender [" + name + "].");
+                }
+                return;
+            }
+
+            if (filters.isEmpty()) {
+                this.appendBatch(events);
+            } else {
+                filteredBatch.clear();
+                for (int i = 0; i < events.size(); i++) {
+                    LogEvent event = events.get(i);
+                    if (getFilterChainDecision(event) != FilterReply.DENY) {
+                        filteredBatch.add(event);
+                    }
+                }
+                if (!filteredBatch.isEmpty()) {
+                    this.appendBatch(filteredBatch);
+                }
+                filteredBatch.clear();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (exceptionCount++ < ALLOWED_REPEATS) {
+                System.err.println("Appender [" + name + "] failed to append.");
+            }
+        }
+    }
+
+    /**
+     * Makes the worker of <code>owner</code>, the async appender this appender
+     * is attached to, the only thread writing to it, so that it can skip the
+     * re-entry guard and its locks. An appender attached to two async
+     * appenders stays synchronized.
+     */
+    void claimSingleWriter(Object owner) {
+        if (singleWriterOwner == null && !sharedWriters) {
+            singleWriterOwner = owner;
+            singleWriter = true;
+        } else if (singleWriterOwner != owner) {
+            System.err.println("Appender [" + name + "] is attached to several async appenders, keeping it synchronized.");
+            singleWriterOwner = null;
+            singleWriter = false;
+            sharedWriters = true;
+        }
+    }
+
+    /**
+     * Called when <code>owner</code> detaches this appender, which may then
+     * be written to from any thread.
+     */
+    void releaseSingleWriter(Object owner) {
+        if (singleWriterOwner == owner) {
+            singleWriterOwner = null;
+            singleWriter = false;
+            writer = null;
+        }
+    }
+
+    /**
+     * Whether only the worker of one async appender writes to this appender.
+     */
+    public boolean isSingleWriter() {
+        return singleWriter;
+    }
+
+    /**
+     * With {@link #checkSingleWriter} on, fails when a single-writer appender
+     * is called from another thread than the first one that wrote to it.
+     */
+    protected final void checkWriter() {
+        if (!checkSingleWriter) {
+            return;
+        }
+        Thread current = Thread.currentThread();
+        if (writer == null) {
+            writer = current;
+        } else if (writer != current) {
+            throw new IllegalStateException("Appender [" + name + "] is written by the worker thread ["
+                    + writer.getName() + "] but was called from [" + current.getName() + "]");
+        }
+    }
+
+    abstract protected void append(LogEvent event);
+
+    /**
+     * Subclasses that can write several events at once should override this
+     * method. The default appends them one by one.
+     */
+    protected void appendBatch(List<LogEvent> events) {
+        for (int i = 0; i < events.size(); i++) {
+            append(events.get(i));
+        }
+    }
+
+    public void addFilter(Filter filter) {
+        filters.add(filter);
+    }
+
+    public void clearAllFilters() {
+        filters.clear();
+    }
+
+    public List<Filter> getCopyOfAttachedFiltersList() {
+        return new ArrayList<>(filters);
+    }
+
+    /**
+     * Asks the filters in turn; the first reply that is not
+     * {@link FilterReply#NEUTRAL} wins.
+     */
+    public FilterReply getFilterChainDecision(LogEvent event) {
+        for (Filter filter : filters) {
+            FilterReply reply = filter.decide(event);
+            if (reply != FilterReply.NEUTRAL) {
+                return reply;
+            }
+        }
+        return FilterReply.NEUTRAL;
+    }
 
     public void setName(String name) {
         this.name = name;
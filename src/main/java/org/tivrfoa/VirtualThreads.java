@@ -0,0 +1,56 @@
+package org.tivrfoa;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads when the JVM has them (JDK 21 and later), through
+ * reflection so that the logger still builds and runs on JDK 17.
+ */
+final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+            // a preview API on JDK 19 and 20 refuses to work without --enable-preview
+            ofVirtual.invoke(null);
+        } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private VirtualThreads() {
+    }
+
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns an unstarted virtual thread running <code>task</code>, or null
+     * if the JVM has no virtual threads.
+     */
+    static Thread newThread(String name, Runnable task) {
+        if (OF_VIRTUAL == null) {
+            return null;
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name);
+            return (Thread) UNSTARTED.invoke(builder, task);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
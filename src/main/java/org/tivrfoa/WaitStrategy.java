@@ -0,0 +1,164 @@
+package org.tivrfoa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * How the consumer of a {@link RingBuffer} waits for producers to publish.
+ * <p>
+ * The strategies trade CPU for latency: <code>BUSY_SPIN</code> burns a core
+ * and reacts fastest, <code>YIELD</code> and <code>PARK</code> back off more
+ * and more, and <code>BLOCKING</code> sleeps on a condition until a producer
+ * signals it.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until <code>sequence</code> has been published, not only claimed:
+     * a producer may still be filling a claimed slot.
+     *
+     * @return the highest claimed sequence, which is at least
+     *         <code>sequence</code>; the slots after <code>sequence</code>
+     *         may still be being filled
+     */
+    long waitFor(long sequence, RingBuffer<?> ring) throws InterruptedException;
+
+    /**
+     * Called by producers after publishing, to wake up a blocked consumer.
+     */
+    void signalAllWhenBlocking();
+
+    static WaitStrategy forName(String name) {
+        return switch (name.trim().toUpperCase()) {
+            case "BUSY_SPIN" -> new BusySpin();
+            case "YIELD" -> new Yield();
+            case "PARK" -> new Park();
+            case "BLOCKING" -> new Blocking();
+            default -> throw new IllegalArgumentException("Unknown wait strategy [" + name + "]");
+        };
+    }
+
+    final class BusySpin implements WaitStrategy {
+
+        @Override
+        public long waitFor(long sequence, RingBuffer<?> ring) throws InterruptedException {
+            long available;
+            while ((available = ring.highestPublished(sequence)) < sequence) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Thread.onSpinWait();
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+        }
+    }
+
+    final class Yield implements WaitStrategy {
+
+        private static final int SPIN_TRIES = 100;
+
+        @Override
+        public long waitFor(long sequence, RingBuffer<?> ring) throws InterruptedException {
+            long available;
+            int counter = SPIN_TRIES;
+            while ((available = ring.highestPublished(sequence)) < sequence) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (counter > 0) {
+                    counter--;
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+        }
+    }
+
+    final class Park implements WaitStrategy {
+
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 100;
+        private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+        @Override
+        public long waitFor(long sequence, RingBuffer<?> ring) throws InterruptedException {
+            long available;
+            int counter = SPIN_TRIES + YIELD_TRIES;
+            while ((available = ring.highestPublished(sequence)) < sequence) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (counter > YIELD_TRIES) {
+                    counter--;
+                    Thread.onSpinWait();
+                } else if (counter > 0) {
+                    counter--;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+        }
+    }
+
+    /**
+     * Sleeps on a condition. Producers only take the lock when the consumer
+     * has announced that it is about to sleep.
+     */
+    final class Blocking implements WaitStrategy {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition published = lock.newCondition();
+        private final AtomicBoolean signalNeeded = new AtomicBoolean(false);
+
+        @Override
+        public long waitFor(long sequence, RingBuffer<?> ring) throws InterruptedException {
+            long available = ring.highestPublished(sequence);
+            if (available < sequence) {
+                lock.lockInterruptibly();
+                try {
+                    do {
+                        signalNeeded.set(true);
+                        if ((available = ring.highestPublished(sequence)) >= sequence) {
+                            break;
+                        }
+                        published.await();
+                    } while ((available = ring.highestPublished(sequence)) < sequence);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return available;
+        }
+
+        @Override
+        public void signalAllWhenBlocking() {
+            if (signalNeeded.getAndSet(false)) {
+                lock.lock();
+                try {
+                    published.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package org.tivrfoa;
 
 class Bar {
-    private static final Logger logger = new Logger(Bar.class.getName());
+    private static final Logger logger = LoggerFactory.getLogger(Bar.class);
 
     public void doIt() {
         logger.trace("doing trace");
@@ -0,0 +1,91 @@
+package org.tivrfoa;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that, in garbage-free mode, a steady-state logging call allocates
+ * nothing on the caller's thread once the JIT compiled it.
+ */
+class GarbageFreeLoggingTest {
+
+    private static final int CALLS = 100_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 10;
+    /**
+     * Measured rounds allowed to allocate: a late deoptimization or
+     * recompilation can allocate in one of them.
+     */
+    private static final int ALLOCATING_ROUNDS_ALLOWED = 2;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void loggingWithParametersAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported(),
+                "thread allocation accounting not available");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        File file = dir.resolve("garbage-free.log").toFile();
+        FileAppender fileAppender = new FileAppender();
+        fileAppender.setName(file.getName());
+        fileAppender.setFile(file.getPath());
+        fileAppender.setEncoder(new PatternLayout());
+        fileAppender.start();
+        AsyncAppenderBase asyncAppender = new AsyncAppenderBase(fileAppender);
+        asyncAppender.setName(file.getName());
+        asyncAppender.setGarbageFree(true);
+        // a producer waking up a BLOCKING worker can queue on its lock, which allocates
+        asyncAppender.setWaitStrategy("PARK");
+        asyncAppender.setDiscardingThreshold(0);
+        asyncAppender.start();
+        assertTrue(asyncAppender.isStarted());
+        Logger logger = new Logger("garbage.free", asyncAppender);
+
+        // boxed up front, from the caches or once: only the logging call is measured
+        Object[] args = { 1, 2L, true, 'c', "immutable", Level.INFO, (short) 3, (byte) 4 };
+        try {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                logRound(logger, args);
+            }
+            long tid = Thread.currentThread().getId();
+            long[] allocated = new long[MEASURED_ROUNDS];
+            int allocating = 0;
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                long before = threads.getThreadAllocatedBytes(tid);
+                long overhead = threads.getThreadAllocatedBytes(tid) - before;
+                before = threads.getThreadAllocatedBytes(tid);
+                logRound(logger, args);
+                allocated[i] = threads.getThreadAllocatedBytes(tid) - before - overhead;
+                if (allocated[i] != 0) {
+                    allocating++;
+                }
+            }
+            assertTrue(allocating <= ALLOCATING_ROUNDS_ALLOWED, "bytes allocated by each round of " + CALLS
+                    + " logging calls: " + Arrays.toString(allocated));
+        } finally {
+            asyncAppender.stop();
+        }
+    }
+
+    private static void logRound(Logger logger, Object[] args) {
+        for (int i = 0; i < CALLS; i++) {
+            logger.info("{} {}", args[i & 7], args[(i + 1) & 7]);
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+}
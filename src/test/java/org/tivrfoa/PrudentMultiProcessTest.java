@@ -0,0 +1,160 @@
+package org.tivrfoa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Starts several JVMs writing batches of lines to the same file in prudent
+ * mode, then checks that each batch landed in one piece: no line of another
+ * process inside it, no torn or missing line.
+ */
+class PrudentMultiProcessTest {
+
+    private static final int PROCESSES = 4;
+    private static final int BATCHES = 100;
+    /**
+     * Lines of about 520 bytes: a batch spans two encode chunks, so it takes
+     * more than one write to the file.
+     */
+    private static final int LINES_PER_BATCH = 200;
+    private static final int PADDING = 500;
+
+    private static final Pattern LINE = Pattern.compile("^p(\\d+) b(\\d+) l(\\d+) (x+) end$");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void batchesDoNotInterleave() throws Exception {
+        checkBatches(false);
+    }
+
+    @Test
+    void batchesDoNotInterleaveWithFileChannel() throws Exception {
+        checkBatches(true);
+    }
+
+    private void checkBatches(boolean fileChannel) throws Exception {
+        Path file = dir.resolve("prudent.log");
+        List<Process> processes = new ArrayList<>();
+        for (int p = 0; p < PROCESSES; p++) {
+            processes.add(new ProcessBuilder(javaExecutable(), "-cp", System.getProperty("java.class.path"),
+                    Writer.class.getName(), file.toString(), String.valueOf(p), String.valueOf(fileChannel))
+                    .redirectErrorStream(true)
+                    .redirectOutput(dir.resolve("writer-" + p + ".out").toFile())
+                    .start());
+        }
+        // release them together, so that they contend for the file
+        for (int p = 0; p < PROCESSES; p++) {
+            Path ready = dir.resolve("ready-" + p);
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (!Files.exists(ready)) {
+                assertTrue(processes.get(p).isAlive() && System.nanoTime() < deadline, "writer " + p + " did not start");
+                Thread.sleep(10);
+            }
+        }
+        Files.createFile(dir.resolve("go"));
+        for (int p = 0; p < PROCESSES; p++) {
+            Process process = processes.get(p);
+            if (!process.waitFor(2, TimeUnit.MINUTES)) {
+                process.destroyForcibly();
+                fail("writer " + p + " did not finish");
+            }
+            assertEquals(0, process.exitValue(),
+                    () -> "writer failed: " + read(dir.resolve("writer-" + processes.indexOf(process) + ".out")));
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(PROCESSES * BATCHES * LINES_PER_BATCH, lines.size(), "lines in the file");
+        int[] nextBatch = new int[PROCESSES];
+        for (int i = 0; i < lines.size(); i += LINES_PER_BATCH) {
+            int process = -1;
+            int batch = -1;
+            for (int l = 0; l < LINES_PER_BATCH; l++) {
+                String line = lines.get(i + l);
+                Matcher m = LINE.matcher(line);
+                assertTrue(m.matches() && m.group(4).length() == PADDING, "torn line " + (i + l + 1) + ": " + line);
+                if (l == 0) {
+                    process = Integer.parseInt(m.group(1));
+                    batch = Integer.parseInt(m.group(2));
+                    assertEquals(nextBatch[process]++, batch, "batch order of process " + process);
+                }
+                assertEquals("p" + process + " b" + batch + " l" + l,
+                        "p" + m.group(1) + " b" + m.group(2) + " l" + m.group(3), "line " + (i + l + 1));
+            }
+        }
+        for (int p = 0; p < PROCESSES; p++) {
+            assertEquals(BATCHES, nextBatch[p], "batches of process " + p);
+        }
+    }
+
+    private static String javaExecutable() {
+        return Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+    }
+
+    private static String read(Path path) {
+        try {
+            return Files.readString(path);
+        } catch (IOException e) {
+            return e.toString();
+        }
+    }
+
+    /**
+     * The writing process: appends its batches straight to a prudent
+     * {@link FileAppender}, the way the worker of an async appender does.
+     */
+    static class Writer {
+
+        public static void main(String[] args) throws Exception {
+            String file = args[0];
+            int process = Integer.parseInt(args[1]);
+            FileAppender appender = new FileAppender();
+            appender.setName("prudent-" + process);
+            appender.setFile(file);
+            appender.setPrudent(true);
+            appender.setFileChannel(Boolean.parseBoolean(args[2]));
+            // one lock per batch: the limit on the events per lock never kicks in
+            appender.setMaxLockHoldMillis(TimeUnit.MINUTES.toMillis(1));
+            appender.setEncoder(new PatternLayout("%msg%n"));
+            appender.start();
+            if (!appender.isStarted()) {
+                System.exit(1);
+            }
+
+            Path dir = Paths.get(file).getParent();
+            Files.createFile(dir.resolve("ready-" + process));
+            while (!Files.exists(dir.resolve("go"))) {
+                Thread.sleep(1);
+            }
+
+            String padding = "x".repeat(PADDING);
+            List<LogEvent> batch = new ArrayList<>();
+            for (int l = 0; l < LINES_PER_BATCH; l++) {
+                batch.add(new LogEvent());
+            }
+            for (int b = 0; b < BATCHES; b++) {
+                for (int l = 0; l < LINES_PER_BATCH; l++) {
+                    batch.get(l).populate(Level.INFO, "prudent", "p" + process + " b" + b + " l" + l + " " + padding + " end");
+                }
+                appender.doAppendBatch(batch);
+            }
+            appender.stop();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.tivrfoa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reconfigures a context over and over while threads log, each new pipeline
+ * writing to the file of the old one, then checks that every event was
+ * written once and that no caller got stuck.
+ */
+class ReloadSameFileTest {
+
+    private static final int THREADS = 4;
+    private static final int EVENTS_PER_THREAD = 20_000;
+    private static final int RELOADS = 20;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void reloadOfMappedFileLosesNothing() throws Exception {
+        Properties props = properties();
+        props.setProperty("mapped-file", "true");
+        props.setProperty("mapped-region-size", "64kb");
+        checkReloads(props);
+    }
+
+    @Test
+    void reloadOfRollingFileLosesNothing() throws Exception {
+        Properties props = properties();
+        props.setProperty("rolling-file-name-pattern", dir.resolve("reload.%i.log").toString());
+        props.setProperty("rolling-max-file-size", "256kb");
+        checkReloads(props);
+    }
+
+    @Test
+    void levelChangeKeepsThePipeline() {
+        Properties props = properties();
+        LoggerContext context = new LoggerContext();
+        context.reconfigure(new Configuration(props, null));
+        try {
+            AsyncAppenderBase appender = context.getAppender(props.getProperty("output-file"));
+            props.setProperty("level", "DEBUG");
+            props.setProperty("level.reload", "TRACE");
+            context.reconfigure(new Configuration(props, null));
+            assertSame(appender, context.getAppender(props.getProperty("output-file")));
+        } finally {
+            context.stop();
+        }
+    }
+
+    private Properties properties() {
+        Properties props = new Properties();
+        props.setProperty("output-file", dir.resolve("reload.log").toString());
+        props.setProperty("pattern", "%msg%n");
+        props.setProperty("discarding-threshold", "0");
+        props.setProperty("jmx", "false");
+        return props;
+    }
+
+    private void checkReloads(Properties props) throws Exception {
+        // two pipelines on the same file, told apart by their queue size
+        Properties other = new Properties();
+        other.putAll(props);
+        props.setProperty("queue-size", "1024");
+        other.setProperty("queue-size", "512");
+        Configuration[] configurations = { new Configuration(props, null), new Configuration(other, null) };
+
+        LoggerContext context = new LoggerContext();
+        context.reconfigure(configurations[0]);
+        Logger logger = context.getLogger("reload");
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                    logger.info("t{} e{}", thread, i);
+                }
+            });
+            threads[t].start();
+        }
+        try {
+            for (int r = 1; r <= RELOADS; r++) {
+                Thread.sleep(5);
+                context.reconfigure(configurations[r % 2]);
+            }
+            for (Thread thread : threads) {
+                thread.join(60_000);
+                assertFalse(thread.isAlive(), "a caller is stuck");
+            }
+        } finally {
+            context.stop();
+        }
+
+        Set<String> expected = new HashSet<>();
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                expected.add("t" + t + " e" + i);
+            }
+        }
+        List<String> lines = lines();
+        assertEquals(THREADS * EVENTS_PER_THREAD, lines.size(), "lines written");
+        assertEquals(expected, new HashSet<>(lines));
+    }
+
+    /**
+     * The lines of the file and of its archives.
+     */
+    private List<String> lines() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("reload"))
+                    .flatMap(file -> {
+                        try {
+                            return Files.readAllLines(file, StandardCharsets.UTF_8).stream();
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+        }
+    }
+}